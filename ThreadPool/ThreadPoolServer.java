@@ -2,13 +2,32 @@ package ThreadPool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Thread Pool Server
+ * A fixed pool of worker threads serves connections handed over by the acceptors.
+ *
+ * Acceptors (-Dserver.acceptors=N, default 1):
+ * - N threads call accept() and hand sockets to the pool
+ * - -Dserver.reusePort=true gives each acceptor its own socket bound to the
+ *   same port with SO_REUSEPORT, so the kernel spreads connections across
+ *   N accept queues instead of N threads taking turns on one
+ */
 public class ThreadPoolServer {
     private final ExecutorService threadPool;
+    private final AtomicLong acceptedConnections = new AtomicLong(0);
+    private final AtomicLong peakAcceptRate = new AtomicLong(0); // Connections accepted in the busiest second
+    private volatile long firstAcceptNanos;
+    private volatile long lastAcceptNanos;
 
     public ThreadPoolServer(int poolSize) {
         this.threadPool = Executors.newFixedThreadPool(poolSize);
@@ -40,31 +59,143 @@ public class ThreadPoolServer {
         }
     }
 
+    /**
+     * One acceptor: dispatches to the pool until the socket's accept timeout expires.
+     * An acceptor that owns its socket (SO_REUSEPORT) closes it on the way out:
+     * the kernel keeps hashing new connections to a bound socket, and nobody
+     * else would ever accept them.
+     */
+    private void acceptLoop(ServerSocket serverSocket, boolean ownsSocket) {
+        while (true) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                recordAccept();
+                threadPool.execute(() -> handleClient(clientSocket));
+            } catch (java.net.SocketTimeoutException e) {
+                System.out.println("Wait timeout reached on " + Thread.currentThread().getName() + ", stopping...");
+                if (ownsSocket) {
+                    try {
+                        serverSocket.close();
+                    } catch (IOException ex) {
+                        System.err.println("Error closing acceptor socket: " + ex.getMessage());
+                    }
+                }
+                break;
+            } catch (IOException ex) {
+                // Accept failures (e.g. fd exhaustion) must not kill the acceptor
+                System.err.println("Error accepting connection: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void recordAccept() {
+        long now = System.nanoTime();
+        if (acceptedConnections.incrementAndGet() == 1) {
+            firstAcceptNanos = now;
+        }
+        lastAcceptNanos = now;
+    }
+
+    /**
+     * Samples the accept counter once a second to find the peak accept rate.
+     */
+    private void startAcceptRateSampler() {
+        Thread sampler = new Thread(() -> {
+            long previous = 0;
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                long current = acceptedConnections.get();
+                peakAcceptRate.accumulateAndGet(current - previous, Math::max);
+                previous = current;
+            }
+        }, "accept-rate-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    private static List<ServerSocket> openSockets(int port, int acceptors, boolean reusePort) throws IOException {
+        List<ServerSocket> sockets = new ArrayList<>();
+        int count = reusePort ? acceptors : 1; // Without SO_REUSEPORT all acceptors share one socket
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocket serverSocket = new ServerSocket();
+                sockets.add(serverSocket);
+                if (reusePort) {
+                    serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                serverSocket.bind(new InetSocketAddress(port));
+                serverSocket.setSoTimeout(70000);
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            for (ServerSocket serverSocket : sockets) {
+                serverSocket.close();
+            }
+            throw ex;
+        }
+        return sockets;
+    }
+
     public static void main(String[] args) {
         int port = 8010;
         int poolSize = 100;
+        int acceptors = Math.max(1, Integer.getInteger("server.acceptors", 1));
+        boolean reusePort = Boolean.getBoolean("server.reusePort");
         ThreadPoolServer server = new ThreadPoolServer(poolSize);
+        List<ServerSocket> sockets = new ArrayList<>();
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            serverSocket.setSoTimeout(70000);
+        try {
+            try {
+                sockets = openSockets(port, acceptors, reusePort);
+            } catch (UnsupportedOperationException ex) {
+                System.out.println("SO_REUSEPORT not supported here, acceptors will share one socket");
+                reusePort = false;
+                sockets = openSockets(port, acceptors, false);
+            }
             System.out.println("Server is listening on port " + port + " with pool size " + poolSize);
+            System.out.println("Acceptor threads: " + acceptors
+                    + (reusePort ? " (one SO_REUSEPORT socket each)" : " (sharing one socket)"));
+            server.startAcceptRateSampler();
 
-            while (true) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    server.threadPool.execute(() -> server.handleClient(clientSocket));
-                } catch (java.net.SocketTimeoutException e) {
-                    System.out.println("Wait timeout reached, shutting down...");
-                    break;
-                }
+            List<Thread> acceptorThreads = new ArrayList<>();
+            boolean ownSockets = reusePort;
+            for (int i = 0; i < acceptors; i++) {
+                ServerSocket serverSocket = sockets.get(i % sockets.size());
+                Thread acceptor = new Thread(() -> server.acceptLoop(serverSocket, ownSockets), "acceptor-" + i);
+                acceptor.start();
+                acceptorThreads.add(acceptor);
+            }
+            for (Thread acceptor : acceptorThreads) {
+                acceptor.join();
             }
         } catch (IOException ex) {
             ex.printStackTrace();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         } finally {
+            for (ServerSocket serverSocket : sockets) {
+                try {
+                    serverSocket.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
             server.shutdownPool();
+            server.printAcceptStats();
         }
     }
 
+    private void printAcceptStats() {
+        long accepted = acceptedConnections.get();
+        double seconds = (lastAcceptNanos - firstAcceptNanos) / 1e9;
+        System.out.println("Accepted connections: " + accepted);
+        System.out.printf("Accept rate: %.0f/s average, %d/s peak%n",
+                seconds > 0 ? (accepted - 1) / seconds : 0.0, peakAcceptRate.get());
+    }
+
     private void shutdownPool() {
         System.out.println("Initiating graceful shutdown of thread pool...");
         threadPool.shutdown(); // Disable new tasks from being submitted
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NIO.2 Asynchronous Channel Server (proactor style)
+ * Serves the same cached data.json payload as OptimizedServer and ReactorServer,
+ * and single records of it as GET /entries/{id} (EntryIndex).
+ *
+ * Instead of waiting for readiness (Selector) or blocking a thread (virtual
+ * threads), every accept, read and write is submitted to the kernel and a
+ * CompletionHandler runs on the AsynchronousChannelGroup pool when it finishes.
+ * On Linux the JDK drives this with epoll underneath. A failed accept (e.g.
+ * EMFILE) is re-armed after a backoff of 10 ms doubling to 1 s, not at once.
+ *
+ * Configuration:
+ * -Dasync.threads=N   size of the AsynchronousChannelGroup pool (default: core count)
+ * -Dpayload.source    heap|mmap|arena, same as OptimizedServer
+ * -Dhttp.*            see KeepAlivePolicy
+ */
+public class AsyncServer {
+    private static final long MIN_ACCEPT_BACKOFF_MS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MS = 1000;
+
+    private final CachedResponse cachedResponse;
+    private final EntryIndex entryIndex;
+    private final KeepAlivePolicy keepAlive;
+    private final AsynchronousChannelGroup group;
+    private final AtomicLong activeConnections = new AtomicLong(0);
+    private final AtomicLong totalConnections = new AtomicLong(0);
+    private final AtomicLong totalRequests = new AtomicLong(0);
+    private final AtomicLong totalWrites = new AtomicLong(0);
+    private final AtomicLong acceptFailures = new AtomicLong(0);
+    private final ScheduledExecutorService acceptRetry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "accept-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AsyncServer(int threads, String payloadSource, KeepAlivePolicy keepAlive) throws IOException {
+        this.keepAlive = keepAlive;
+        this.group = AsynchronousChannelGroup.withFixedThreadPool(threads, Executors.defaultThreadFactory());
+        // Cache the complete HTTP response (status line + headers + body) as bytes
+        this.cachedResponse = CachedResponse.load("application/json", Paths.get("../data.json"), payloadSource);
+        System.out.println("HTTP response pre-encoded (" + payloadSource + ", " + cachedResponse.totalLength() + " bytes)");
+        this.entryIndex = EntryIndex.orEmpty(cachedResponse);
+        System.out.println("Entry index: " + entryIndex);
+    }
+
+    public void start(AsynchronousServerSocketChannel listener) {
+        listener.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            private long backoffMillis; // Only one accept is outstanding, so never touched concurrently
+
+            @Override
+            public void completed(AsynchronousSocketChannel client, Void attachment) {
+                backoffMillis = 0;
+                listener.accept(null, this); // Re-arm first so accepts overlap with setup
+                activeConnections.incrementAndGet();
+                totalConnections.incrementAndGet();
+                try {
+                    client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException ignored) {
+                    // Latency tweak only - serve the connection anyway
+                }
+                new Connection(client).read();
+            }
+
+            @Override
+            public void failed(Throwable ex, Void attachment) {
+                if (listener.isOpen()) {
+                    // Accept failures (e.g. fd exhaustion) must not stop the listener, but
+                    // re-arming at once would spin on a persistent one - pause, doubling each time
+                    backoffMillis = Math.min(Math.max(2 * backoffMillis, MIN_ACCEPT_BACKOFF_MS), MAX_ACCEPT_BACKOFF_MS);
+                    acceptFailures.incrementAndGet();
+                    System.err.println("Error accepting connection: " + ex.getMessage()
+                            + " (retrying in " + backoffMillis + " ms)");
+                    acceptRetry.schedule(() -> {
+                        if (listener.isOpen()) {
+                            listener.accept(null, this);
+                        }
+                    }, backoffMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * One client connection. Exactly one read or write is outstanding at a
+     * time, so the handlers never run concurrently for the same connection.
+     */
+    private final class Connection {
+        private final AsynchronousSocketChannel client;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(HttpRequestParser.MAX_HEADER_BYTES);
+        private final HttpRequestParser parser = new HttpRequestParser(HttpRequestParser.MAX_HEADER_BYTES);
+        private final List<ByteBuffer> batch = new ArrayList<>();
+        private int requestStart;
+        private int served;
+        private boolean keepOpen = true;
+        private ByteBuffer[] pendingWrite;
+
+        private final CompletionHandler<Integer, Void> onRead = new CompletionHandler<>() {
+            @Override
+            public void completed(Integer n, Void attachment) {
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                serveRequests();
+            }
+
+            @Override
+            public void failed(Throwable ex, Void attachment) {
+                // InterruptedByTimeoutException is the keep-alive idle timeout - normal close
+                if (!(ex instanceof InterruptedByTimeoutException) && !(ex instanceof IOException)) {
+                    System.err.println("Error reading request: " + ex);
+                }
+                close();
+            }
+        };
+
+        private final CompletionHandler<Long, Void> onWrite = new CompletionHandler<>() {
+            @Override
+            public void completed(Long written, Void attachment) {
+                if (pendingWrite[pendingWrite.length - 1].hasRemaining()) {
+                    writePending(); // Partial write - submit the rest
+                } else if (keepOpen) {
+                    pendingWrite = null;
+                    read();
+                } else {
+                    close();
+                }
+            }
+
+            @Override
+            public void failed(Throwable ex, Void attachment) {
+                close();
+            }
+        };
+
+        Connection(AsynchronousSocketChannel client) {
+            this.client = client;
+        }
+
+        void read() {
+            client.read(readBuffer, keepAlive.idleTimeoutMillis(), TimeUnit.MILLISECONDS, null, onRead);
+        }
+
+        /**
+         * Answers every complete request in the read buffer with one gathering write.
+         */
+        private void serveRequests() {
+            // 1. Parse Request Headers (HTTP Compliance) - queue a response per complete request
+            while (keepOpen) {
+                HttpRequestParser.Result result = parser.parse(readBuffer, requestStart, readBuffer.position());
+                if (result == HttpRequestParser.Result.INCOMPLETE) {
+                    if (requestStart > 0 || readBuffer.hasRemaining()) {
+                        break; // Wait for the rest of the request
+                    }
+                    result = HttpRequestParser.Result.TOO_LARGE; // Head fills the whole buffer
+                }
+                if (result == HttpRequestParser.Result.COMPLETE) {
+                    served++;
+                    keepOpen = keepAlive.keepOpen(served, parser.canReuseConnection());
+                    CachedResponse entry = entryIndex.lookup(parser); // GET /entries/{id}
+                    Collections.addAll(batch, (entry != null ? entry : cachedResponse).respond(parser, null, keepOpen));
+                    requestCompleted();
+                    requestStart = parser.requestEnd();
+                    parser.reset();
+                } else {
+                    // Answer the bad request, then close - the rest of the stream cannot be trusted
+                    keepOpen = false;
+                    CachedResponse error = result == HttpRequestParser.Result.TOO_LARGE
+                            ? CachedResponse.HEADERS_TOO_LARGE : CachedResponse.BAD_REQUEST;
+                    Collections.addAll(batch, error.full(false));
+                }
+            }
+
+            // Drop answered requests; what remains is the start of the next one
+            if (requestStart > 0) {
+                readBuffer.flip().position(requestStart);
+                readBuffer.compact();
+                requestStart = 0;
+                parser.reset(); // Offsets moved - rescan the partial request
+            }
+
+            if (batch.isEmpty()) {
+                read();
+                return;
+            }
+
+            // 2. Send HTTP Responses (pre-encoded bytes, one write for the whole batch)
+            pendingWrite = batch.toArray(new ByteBuffer[0]);
+            batch.clear();
+            totalWrites.incrementAndGet();
+            writePending();
+        }
+
+        private void writePending() {
+            client.write(pendingWrite, 0, pendingWrite.length, 0, TimeUnit.MILLISECONDS, null, onWrite);
+        }
+
+        private void close() {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // Nothing left to do for a connection we are discarding
+            }
+            activeConnections.decrementAndGet();
+        }
+    }
+
+    private void requestCompleted() {
+        long reqId = totalRequests.incrementAndGet();
+
+        // Log every 1000 requests
+        if (reqId % 1000 == 0) {
+            System.out.printf("Processed %,d requests | Active: %,d | Thread: %s%n",
+                    reqId, activeConnections.get(), Thread.currentThread().getName());
+        }
+    }
+
+    public static void main(String[] args) {
+        int port = 8040; // Runs next to OptimizedServer (8010) and ReactorServer (8030)
+        int backlog = 10000; // Same backlog as OptimizedServer for fair comparison
+        int threads = Integer.getInteger("async.threads", Runtime.getRuntime().availableProcessors());
+        String payloadSource = CachedResponse.availableSource(System.getProperty("payload.source", "heap"));
+        KeepAlivePolicy keepAlive = KeepAlivePolicy.fromSystemProperties();
+
+        try {
+            AsyncServer server = new AsyncServer(threads, payloadSource, keepAlive);
+
+            AsynchronousServerSocketChannel listener = AsynchronousServerSocketChannel.open(server.group);
+            listener.bind(new InetSocketAddress(port), backlog);
+            System.out.println("Async server listening on port: " + port);
+            System.out.println("Connection backlog: " + backlog);
+            System.out.println("Channel group threads: " + threads + " (completion handlers)");
+            System.out.println("Keep-alive: " + keepAlive);
+            System.out.println("\nPress Ctrl+C to shutdown gracefully...\n");
+
+            // Add shutdown hook for graceful termination
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("\n\nShutdown signal received...");
+                server.shutdownGroup(listener);
+                System.out.println("Final stats:");
+                System.out.println("  Total requests processed: " + server.totalRequests.get());
+                System.out.println("  Total connections accepted: " + server.totalConnections.get());
+                System.out.printf("  Requests per connection: %.2f%n",
+                        server.totalRequests.get() / (double) Math.max(1, server.totalConnections.get()));
+                System.out.printf("  Responses per write batch: %.2f%n",
+                        server.totalRequests.get() / (double) Math.max(1, server.totalWrites.get()));
+                System.out.println("  Active connections: " + server.activeConnections.get());
+                System.out.println("  Accept failures: " + server.acceptFailures.get());
+            }));
+
+            server.start(listener);
+            server.group.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void shutdownGroup(AsynchronousServerSocketChannel listener) {
+        System.out.println("Initiating graceful shutdown of channel group...");
+        try {
+            listener.close(); // Stop accepting - idle keep-alive connections close on their timeout
+            group.shutdown(); // No new channels; terminates once the open ones close
+            if (!group.awaitTermination(60, TimeUnit.SECONDS)) {
+                System.out.println("Timeout elapsed, forcing shutdown...");
+                group.shutdownNow();
+            } else {
+                System.out.println("All channels closed successfully.");
+            }
+        } catch (IOException ex) {
+            System.err.println("Error closing channel group: " + ex.getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
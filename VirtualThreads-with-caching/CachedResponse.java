@@ -0,0 +1,739 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A complete HTTP response (status line + headers + body) encoded once
+ * into read-only direct ByteBuffers.
+ *
+ * Requests never copy or re-encode it - they take duplicate() views, which
+ * share the bytes and only carry their own position/limit. Per-request
+ * headers are spliced in as a separate buffer just before the blank line,
+ * so the response still goes out in one gathering write.
+ *
+ * Two header blocks are encoded - "Connection: keep-alive" and
+ * "Connection: close" - so persistent connections cost nothing per request.
+ *
+ * Body sources:
+ * - heap:  file bytes copied once into a direct buffer (fastest, pins memory)
+ * - mmap:  file mapped with FileChannel.map; the OS page cache backs the body
+ *          and the Java heap holds nothing but the mapping objects
+ * - arena: like heap, but every buffer of one load is a segment of one
+ *          PayloadArena - counted exactly, freed together (java.lang.foreign;
+ *          loaded by name, compiled separately with --enable-preview)
+ *
+ * Content-Encoding: load() also compresses the body once into gzip and
+ * deflate variants, each a complete CachedResponse of its own. Requests
+ * pick one with forEncoding() from their Accept-Encoding header, so
+ * compression costs nothing per request. Every variant carries
+ * "Vary: Accept-Encoding" so caches keep them apart.
+ *
+ * Conditional requests: load() also hashes the body into a strong ETag
+ * (one per variant, since the bytes differ) and sends the file's
+ * Last-Modified. A matching If-None-Match, or an If-Modified-Since no older
+ * than the file, gets a pre-encoded header-only 304 instead of the body.
+ *
+ * Range requests: partial() answers "Range: bytes=..." with a 206 whose
+ * body is views of the cached buffers - one range, or several as
+ * multipart/byteranges - so a small window never copies the payload.
+ * Ranges always address the identity bytes.
+ */
+final class CachedResponse {
+    private static final int MAX_MAPPING = 1 << 30; // Split mappings so files > 2 GB still work
+    private static final long MAX_COMPRESSIBLE = MAX_MAPPING; // Compressed variants must fit one buffer
+    private static final String ARENA_CLASS = "PayloadArena"; // Preview API - never linked statically
+    private static final String VARY = "Vary: Accept-Encoding\r\n";
+    private static final String ACCEPT_RANGES = "Accept-Ranges: bytes\r\n"; // Ranges address the identity bytes
+    private static final int MAX_RANGES = 16; // More ranges than this and the Range header is ignored
+    private static final String BOUNDARY = "7d3f1c9a5e2b8046";
+
+    static final CachedResponse BAD_REQUEST = of("400 Bad Request", "text/plain",
+            "Bad Request\n".getBytes(StandardCharsets.US_ASCII));
+    static final CachedResponse NOT_FOUND = of("404 Not Found", "text/plain",
+            "Not Found\n".getBytes(StandardCharsets.US_ASCII));
+    static final CachedResponse SERVER_ERROR = of("500 Internal Server Error", "text/plain",
+            "Internal Server Error\n".getBytes(StandardCharsets.US_ASCII));
+    static final CachedResponse HEADERS_TOO_LARGE = of("431 Request Header Fields Too Large", "text/plain",
+            "Request Header Fields Too Large\n".getBytes(StandardCharsets.US_ASCII));
+
+    private final ByteBuffer keepAliveHead; // Status line + headers + blank line
+    private final ByteBuffer closeHead;
+    private final ByteBuffer[] body;        // One buffer, or one per mapped region
+    private final long bodyLength;
+    private final CachedResponse gzip;      // Compressed variants; null when not offered
+    private final CachedResponse deflate;
+    private final Validators validators;    // null for fixed responses (errors, 304s)
+
+    /**
+     * Conditional and range request support for one variant.
+     */
+    private static final class Validators {
+        final CachedResponse notModified;   // Header-only 304
+        final String etag;                  // Quoted strong entity tag, e.g. "3f2a...-gzip"
+        final String lastModified;          // IMF-fixdate, as sent in Last-Modified
+        final long lastModifiedSeconds;
+        final String contentType;
+        final String representationHeaders; // Vary, ETag, Last-Modified - repeated in 206s
+
+        Validators(CachedResponse notModified, String etag, String lastModified, long lastModifiedSeconds,
+                String contentType, String representationHeaders) {
+            this.notModified = notModified;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.lastModifiedSeconds = lastModifiedSeconds;
+            this.contentType = contentType;
+            this.representationHeaders = representationHeaders;
+        }
+    }
+
+    private CachedResponse(ByteBuffer keepAliveHead, ByteBuffer closeHead, ByteBuffer[] body, long bodyLength) {
+        this(keepAliveHead, closeHead, body, bodyLength, null, null, null);
+    }
+
+    private CachedResponse(ByteBuffer keepAliveHead, ByteBuffer closeHead, ByteBuffer[] body, long bodyLength,
+            CachedResponse gzip, CachedResponse deflate, Validators validators) {
+        this.keepAliveHead = keepAliveHead;
+        this.closeHead = closeHead;
+        this.body = body;
+        this.bodyLength = bodyLength;
+        this.gzip = gzip;
+        this.deflate = deflate;
+        this.validators = validators;
+    }
+
+    /**
+     * Encodes a 200 response with the body held in a direct buffer.
+     * Content-Length is the byte count of the body, not the char count
+     * of a decoded String.
+     */
+    static CachedResponse ok(String contentType, byte[] body) {
+        return of("200 OK", contentType, body);
+    }
+
+    /**
+     * As ok(contentType, body), encoded into a buffer from allocate - so many
+     * small responses can share one slab instead of a direct buffer each.
+     */
+    static CachedResponse ok(String contentType, byte[] body, IntFunction<ByteBuffer> allocate) {
+        return of("200 OK", contentType, "", body, allocate);
+    }
+
+    /**
+     * Encodes a response with any status, e.g. of("400 Bad Request", ...).
+     */
+    static CachedResponse of(String status, String contentType, byte[] body) {
+        return of(status, contentType, "", body);
+    }
+
+    /**
+     * extraHeaders must be complete "Name: value\r\n" lines (or empty).
+     */
+    private static CachedResponse of(String status, String contentType, String extraHeaders, byte[] body) {
+        return of(status, contentType, extraHeaders, body, ByteBuffer::allocateDirect);
+    }
+
+    /**
+     * allocate returns the empty native buffer the encoded bytes are copied
+     * into: a direct ByteBuffer, or a segment of a PayloadArena.
+     */
+    private static CachedResponse of(String status, String contentType, String extraHeaders, byte[] body,
+            IntFunction<ByteBuffer> allocate) {
+        byte[] keepAliveHead = encodeHead(status, contentType, extraHeaders, body.length, true);
+        byte[] closeHead = encodeHead(status, contentType, extraHeaders, body.length, false);
+        ByteBuffer buffer = allocate.apply(keepAliveHead.length + closeHead.length + body.length);
+        buffer.put(keepAliveHead).put(closeHead).put(body).flip();
+        ByteBuffer encoded = buffer.asReadOnlyBuffer();
+        int bodyStart = keepAliveHead.length + closeHead.length;
+        return new CachedResponse(
+                encoded.slice(0, keepAliveHead.length),
+                encoded.slice(keepAliveHead.length, closeHead.length),
+                new ByteBuffer[] { encoded.slice(bodyStart, body.length) },
+                body.length);
+    }
+
+    /**
+     * Encodes a 200 response whose body is a read-only memory mapping of file.
+     * Only the headers live in a buffer we allocate; the body is served from
+     * slices of the mapping, so pages are loaded and evicted by the OS.
+     */
+    static CachedResponse mapped(String contentType, Path file) throws IOException {
+        return mapped(contentType, "", file);
+    }
+
+    private static CachedResponse mapped(String contentType, String extraHeaders, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int regions = (int) ((size + MAX_MAPPING - 1) / MAX_MAPPING);
+            ByteBuffer[] body = new ByteBuffer[Math.max(regions, 1)];
+            body[0] = ByteBuffer.allocate(0);
+            for (int i = 0; i < regions; i++) {
+                long position = (long) i * MAX_MAPPING;
+                long length = Math.min(MAX_MAPPING, size - position);
+                // The mapping stays valid after the channel is closed
+                body[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            }
+            return new CachedResponse(
+                    directCopy(encodeHead("200 OK", contentType, extraHeaders, size, true)),
+                    directCopy(encodeHead("200 OK", contentType, extraHeaders, size, false)),
+                    body, size);
+        }
+    }
+
+    /**
+     * As mapped(), plus ETag and Last-Modified validators and their 304. The
+     * ETag is the file's modification time and size, not a hash of its
+     * bytes, so building it costs a stat and a mapping instead of a read of
+     * the whole file - for files too large to keep in memory.
+     */
+    static CachedResponse mappedWithMetadata(String contentType, Path file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        String etag = "\"" + Long.toHexString(modified.toMillis()) + "-" + Long.toHexString(Files.size(file)) + "\"";
+        CachedResponse identity = mapped(contentType, ACCEPT_RANGES + validatorHeaders(etag, modified), file);
+        return withValidators(identity, contentType, etag, modified, "", null, null, ByteBuffer::allocateDirect);
+    }
+
+    /**
+     * Loads file using the requested body source ("heap", "mmap" or
+     * "arena"), plus gzip and deflate variants and the ETag / Last-Modified
+     * validators. The compressed bytes always live in direct buffers (arena
+     * segments with "arena"); a variant is dropped if it would not be smaller.
+     *
+     * "arena" puts every buffer of this load - bodies, variants, heads,
+     * 304s - into one PayloadArena instead of one direct buffer each. Check
+     * availableSource() first: the arena needs java.lang.foreign.
+     */
+    static CachedResponse load(String contentType, Path file, String source) throws IOException {
+        return load(contentType, file, source, true);
+    }
+
+    /**
+     * As load(contentType, file, source), but compressed variants are only
+     * built when compress is set - a cache that loads on misses may not want
+     * to pay for them on the request path.
+     */
+    static CachedResponse load(String contentType, Path file, String source, boolean compress) throws IOException {
+        return load(contentType, file, source, compress, Warmup.INLINE);
+    }
+
+    /**
+     * As load(contentType, file, source, compress), reading the file once:
+     * the hash and each compressed variant are then forked onto warmup's
+     * pool over those bytes while the calling thread encodes the identity
+     * body; each step is timed. "mmap" never copies the file to the heap -
+     * its hash and variants stream from the file instead.
+     */
+    static CachedResponse load(String contentType, Path file, String source, boolean compress, Warmup warmup)
+            throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        long size = Files.size(file);
+        boolean variants = compress && size <= MAX_COMPRESSIBLE;
+        boolean mapped = "mmap".equals(source);
+
+        byte[] bytes = mapped ? null : warmup.run("read", () -> Files.readAllBytes(file));
+        Warmup.Step<String> hash = bytes == null
+                ? warmup.fork("hash", () -> contentHash(file))
+                : warmup.fork("hash", () -> contentHash(bytes));
+        Warmup.Step<byte[]> gzipped = null;
+        Warmup.Step<byte[]> deflated = null;
+        if (variants) {
+            gzipped = bytes == null
+                    ? warmup.fork("gzip", () -> compress("gzip", file))
+                    : warmup.fork("gzip", () -> compress("gzip", bytes));
+            deflated = bytes == null
+                    ? warmup.fork("deflate", () -> compress("deflate", file))
+                    : warmup.fork("deflate", () -> compress("deflate", bytes));
+        }
+
+        IntFunction<ByteBuffer> allocate = "arena".equals(source) ? newArena() : ByteBuffer::allocateDirect;
+        String etag = "\"" + hash.join() + "\"";
+        CachedResponse gzip = gzipped == null ? null
+                : compressed(contentType, "gzip", gzipped.join(), size, etag, modified, allocate);
+        CachedResponse deflate = deflated == null ? null
+                : compressed(contentType, "deflate", deflated.join(), size, etag, modified, allocate);
+        String headers = ACCEPT_RANGES + VARY + validatorHeaders(etag, modified);
+        return warmup.run("encode", () -> {
+            CachedResponse identity = mapped
+                    ? mapped(contentType, headers, file)
+                    : of("200 OK", contentType, headers, bytes, allocate);
+            return withValidators(identity, contentType, etag, modified, VARY, gzip, deflate, allocate);
+        });
+    }
+
+    /**
+     * source, or "heap" (with a note on stdout) when it is "arena" and
+     * PayloadArena cannot be loaded: not compiled, or compiled with
+     * --enable-preview but this JVM was started without it.
+     */
+    static String availableSource(String source) {
+        if (!"arena".equals(source)) {
+            return source;
+        }
+        try {
+            Class.forName(ARENA_CLASS);
+            return source;
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            System.out.println("Off-heap arena unavailable (" + ex + "), using direct buffers."
+                    + " It needs: javac --enable-preview --release 21 PayloadArena.java, and java --enable-preview");
+            return "heap";
+        }
+    }
+
+    /**
+     * A new PayloadArena, as the allocator of one load. By name, so that
+     * compiling the servers never compiles java.lang.foreign code.
+     */
+    private static IntFunction<ByteBuffer> newArena() {
+        try {
+            @SuppressWarnings("unchecked")
+            IntFunction<ByteBuffer> arena = (IntFunction<ByteBuffer>) Class.forName(ARENA_CLASS)
+                    .getDeclaredConstructor().newInstance();
+            return arena;
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            throw new IllegalStateException("PayloadArena unavailable - check availableSource() first", ex);
+        }
+    }
+
+    /**
+     * PayloadArena's accounting line, or why there is none.
+     */
+    static String arenaStats() {
+        try {
+            return (String) Class.forName(ARENA_CLASS).getDeclaredMethod("stats").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return "unavailable (" + ex + ")";
+        }
+    }
+
+    /**
+     * bytes compressed with coding ("gzip" or "deflate") at the best level.
+     */
+    private static byte[] compress(String coding, byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressor = compressor(coding, out)) {
+            compressor.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * As compress(coding, bytes), streaming the file, so only the compressed
+     * bytes ever reach the heap.
+     */
+    private static byte[] compress(String coding, Path file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(file);
+                OutputStream compressor = compressor(coding, out)) {
+            in.transferTo(compressor);
+        }
+        return out.toByteArray();
+    }
+
+    private static OutputStream compressor(String coding, OutputStream out) throws IOException {
+        // "deflate" is the zlib format (RFC 1950), which is what DeflaterOutputStream writes
+        return "gzip".equals(coding)
+                ? new GZIPOutputStream(out) {
+                    {
+                        def.setLevel(Deflater.BEST_COMPRESSION); // Paid once at load time
+                    }
+                }
+                : new DeflaterOutputStream(out, new Deflater(Deflater.BEST_COMPRESSION));
+    }
+
+    private static CachedResponse compressed(String contentType, String coding, byte[] compressed,
+            long identityLength, String identityEtag, FileTime modified, IntFunction<ByteBuffer> allocate) {
+        if (compressed.length >= identityLength) {
+            return null; // Incompressible - identity is cheaper for everyone
+        }
+        // Different bytes, so a different strong ETag
+        String etag = identityEtag.substring(0, identityEtag.length() - 1) + "-" + coding + "\"";
+        String headers = "Content-Encoding: " + coding + "\r\n" + VARY;
+        CachedResponse encoded = of("200 OK", contentType, headers + validatorHeaders(etag, modified),
+                compressed, allocate);
+        return withValidators(encoded, contentType, etag, modified, headers, null, null, allocate);
+    }
+
+    /**
+     * Copies response and attaches its validators plus the matching 304.
+     * The 304 repeats the ETag, Last-Modified and variant headers but has
+     * no body, Content-Type or Content-Length.
+     */
+    private static CachedResponse withValidators(CachedResponse response, String contentType, String etag,
+            FileTime modified, String variantHeaders, CachedResponse gzip, CachedResponse deflate,
+            IntFunction<ByteBuffer> allocate) {
+        String headers = variantHeaders + validatorHeaders(etag, modified);
+        CachedResponse notModified = new CachedResponse(
+                directCopy(encodeHead("304 Not Modified", null, headers, -1, true), allocate),
+                directCopy(encodeHead("304 Not Modified", null, headers, -1, false), allocate),
+                new ByteBuffer[0], 0);
+        Validators validators = new Validators(notModified, etag, httpDate(modified),
+                modified.toInstant().getEpochSecond(), contentType, headers);
+        return new CachedResponse(response.keepAliveHead, response.closeHead, response.body, response.bodyLength,
+                gzip, deflate, validators);
+    }
+
+    private static String validatorHeaders(String etag, FileTime modified) {
+        return "ETag: " + etag + "\r\n" + "Last-Modified: " + httpDate(modified) + "\r\n";
+    }
+
+    private static String httpDate(FileTime time) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(time.toInstant().atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * SHA-256 of bytes, first 128 bits in hex.
+     */
+    private static String contentHash(byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes), 0, 16);
+    }
+
+    /**
+     * As contentHash(bytes), streaming the file, so mapped files of any size
+     * can be hashed.
+     */
+    private static String contentHash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] chunk = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                digest.update(chunk, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is required on every JDK", ex);
+        }
+    }
+
+    /**
+     * The response for this request: the variant its Accept-Encoding picks
+     * (forEncoding), or that variant's 304 if the request's validators
+     * still match. If-None-Match takes precedence over If-Modified-Since.
+     */
+    CachedResponse forRequest(HttpRequestParser request) {
+        CachedResponse variant = forEncoding(request);
+        if (variant.validators == null) {
+            return variant;
+        }
+        int ifNoneMatch = request.header("if-none-match");
+        if (ifNoneMatch >= 0) {
+            return request.entityTagListMatches(ifNoneMatch, variant.validators.etag)
+                    ? variant.validators.notModified : variant;
+        }
+        int ifModifiedSince = request.header("if-modified-since");
+        if (ifModifiedSince >= 0 && variant.unmodifiedSince(request, ifModifiedSince)) {
+            return variant.validators.notModified;
+        }
+        return variant;
+    }
+
+    /**
+     * Everything a GET of this resource can produce, in precedence order:
+     * 304 (forRequest), 206/416 (partial), else the full variant.
+     * extraHeaders (complete header lines) may be null.
+     */
+    ByteBuffer[] respond(HttpRequestParser request, ByteBuffer extraHeaders, boolean keepAlive) {
+        CachedResponse variant = forRequest(request);
+        if (!variant.isNotModified()) {
+            ByteBuffer[] partial = partial(request, extraHeaders, keepAlive);
+            if (partial != null) {
+                return partial;
+            }
+        }
+        return extraHeaders == null ? variant.full(keepAlive) : variant.withHeaders(extraHeaders, keepAlive);
+    }
+
+    /**
+     * Answers a Range request from the identity bytes, or returns null when
+     * the full response applies: no Range, an If-Range that no longer
+     * matches, or a Range header that must be ignored. Call it only after
+     * forRequest() found no 304 - preconditions come first.
+     * extraHeaders (complete header lines) may be null.
+     */
+    ByteBuffer[] partial(HttpRequestParser request, ByteBuffer extraHeaders, boolean keepAlive) {
+        int range = request.header("range");
+        if (validators == null || range < 0) {
+            return null;
+        }
+        int ifRange = request.header("if-range");
+        if (ifRange >= 0 && !request.headerValueEquals(ifRange, validators.etag)
+                && !request.headerValueEquals(ifRange, validators.lastModified)) {
+            return null; // Representation changed since the client's copy - send all of it
+        }
+        long[] starts = new long[MAX_RANGES];
+        long[] ends = new long[MAX_RANGES];
+        int count = request.byteRanges(range, bodyLength, starts, ends);
+        if (count < 0) {
+            return null;
+        }
+
+        String connection = keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n";
+        List<ByteBuffer> views = new ArrayList<>();
+        if (count == 0) {
+            return assemble("HTTP/1.1 416 Range Not Satisfiable\r\n"
+                    + "Content-Range: bytes */" + bodyLength + "\r\n"
+                    + "Content-Length: 0\r\n" + connection, extraHeaders, views);
+        }
+        if (count == 1) {
+            addSlice(views, starts[0], ends[0]);
+            return assemble("HTTP/1.1 206 Partial Content\r\n"
+                    + "Content-Type: " + validators.contentType + "\r\n"
+                    + validators.representationHeaders
+                    + "Content-Range: bytes " + starts[0] + "-" + ends[0] + "/" + bodyLength + "\r\n"
+                    + "Content-Length: " + (ends[0] - starts[0] + 1) + "\r\n" + connection, extraHeaders, views);
+        }
+
+        // multipart/byteranges: a small header per part, the part itself a view of the cache
+        long length = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer partHead = ascii("\r\n--" + BOUNDARY + "\r\n"
+                    + "Content-Type: " + validators.contentType + "\r\n"
+                    + "Content-Range: bytes " + starts[i] + "-" + ends[i] + "/" + bodyLength + "\r\n\r\n");
+            length += partHead.remaining() + ends[i] - starts[i] + 1;
+            views.add(partHead);
+            addSlice(views, starts[i], ends[i]);
+        }
+        ByteBuffer closing = ascii("\r\n--" + BOUNDARY + "--\r\n");
+        length += closing.remaining();
+        views.add(closing);
+        return assemble("HTTP/1.1 206 Partial Content\r\n"
+                + "Content-Type: multipart/byteranges; boundary=" + BOUNDARY + "\r\n"
+                + validators.representationHeaders
+                + "Content-Length: " + length + "\r\n" + connection, extraHeaders, views);
+    }
+
+    /**
+     * head (status line + header lines, no blank line), extraHeaders, blank line, body.
+     */
+    private static ByteBuffer[] assemble(String head, ByteBuffer extraHeaders, List<ByteBuffer> body) {
+        List<ByteBuffer> views = new ArrayList<>(body.size() + 3);
+        views.add(ascii(head));
+        if (extraHeaders != null) {
+            views.add(extraHeaders);
+        }
+        views.add(ascii("\r\n"));
+        views.addAll(body);
+        return views.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * Adds views of body bytes [from, to] (inclusive), split at mapped region boundaries.
+     */
+    private void addSlice(List<ByteBuffer> views, long from, long to) {
+        long regionStart = 0;
+        for (ByteBuffer region : body) {
+            long regionEnd = regionStart + region.limit();
+            if (from < regionEnd && to >= regionStart) {
+                int sliceFrom = (int) (Math.max(from, regionStart) - regionStart);
+                int sliceTo = (int) (Math.min(to + 1, regionEnd) - regionStart);
+                views.add(region.duplicate().limit(sliceTo).position(sliceFrom));
+            }
+            regionStart = regionEnd;
+        }
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    boolean isNotModified() {
+        return bodyLength == 0 && body.length == 0;
+    }
+
+    private boolean unmodifiedSince(HttpRequestParser request, int header) {
+        // Clients normally echo our Last-Modified back verbatim - compare bytes before parsing a date
+        if (request.headerValueEquals(header, validators.lastModified)) {
+            return true;
+        }
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(request.headerValue("if-modified-since"),
+                    DateTimeFormatter.RFC_1123_DATE_TIME);
+            return validators.lastModifiedSeconds <= since.toEpochSecond();
+        } catch (DateTimeParseException ex) {
+            return false; // Invalid dates are ignored (RFC 9110, 13.1.3)
+        }
+    }
+
+    /**
+     * The variant to send for this request's Accept-Encoding: gzip, then
+     * deflate, then identity. Never allocates.
+     */
+    CachedResponse forEncoding(HttpRequestParser request) {
+        if (gzip != null && request.acceptsEncoding("gzip")) {
+            return gzip;
+        }
+        if (deflate != null && request.acceptsEncoding("deflate")) {
+            return deflate;
+        }
+        return this;
+    }
+
+    /**
+     * Body length of the named variant ("identity", "gzip", "deflate"), or -1 if not offered.
+     */
+    long variantLength(String coding) {
+        CachedResponse variant = switch (coding) {
+            case "gzip" -> gzip;
+            case "deflate" -> deflate;
+            default -> this;
+        };
+        return variant == null ? -1 : variant.bodyLength;
+    }
+
+    long bodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * The quoted strong ETag, or null for fixed responses.
+     */
+    String etag() {
+        return validators == null ? null : validators.etag;
+    }
+
+    long totalLength() {
+        return closeHead.capacity() + bodyLength;
+    }
+
+    /**
+     * Bytes this response keeps alive: both heads, the body, the compressed
+     * variants and the 304s. What a size-bounded cache charges for it.
+     */
+    long footprint() {
+        long bytes = keepAliveHead.capacity() + closeHead.capacity() + bodyLength;
+        if (gzip != null) {
+            bytes += gzip.footprint();
+        }
+        if (deflate != null) {
+            bytes += deflate.footprint();
+        }
+        if (validators != null) {
+            bytes += validators.notModified.footprint();
+        }
+        return bytes;
+    }
+
+    /**
+     * A heap copy of the identity body, for building derived data (such as
+     * EntryIndex) off the request path. Copies the whole body.
+     */
+    byte[] bodyBytes() {
+        byte[] bytes = new byte[Math.toIntExact(bodyLength)];
+        int offset = 0;
+        for (ByteBuffer region : body) {
+            int length = region.remaining();
+            region.get(region.position(), bytes, offset, length);
+            offset += length;
+        }
+        return bytes;
+    }
+
+    /**
+     * The whole response as fresh views, ready for a gathering write. Never copies.
+     */
+    ByteBuffer[] full(boolean keepAlive) {
+        ByteBuffer[] views = new ByteBuffer[1 + body.length];
+        views[0] = (keepAlive ? keepAliveHead : closeHead).duplicate();
+        for (int i = 0; i < body.length; i++) {
+            views[i + 1] = body[i].duplicate();
+        }
+        return views;
+    }
+
+    /**
+     * The response split around per-request headers, ready for a gathering write.
+     * extraHeaders must contain complete "Name: value\r\n" lines.
+     */
+    ByteBuffer[] withHeaders(ByteBuffer extraHeaders, boolean keepAlive) {
+        ByteBuffer head = keepAlive ? keepAliveHead : closeHead;
+        int headerEnd = head.capacity() - 2; // Offset of the blank line
+        ByteBuffer[] views = new ByteBuffer[3 + body.length];
+        views[0] = head.duplicate().limit(headerEnd);
+        views[1] = extraHeaders;
+        views[2] = head.duplicate().position(headerEnd);
+        for (int i = 0; i < body.length; i++) {
+            views[i + 3] = body[i].duplicate();
+        }
+        return views;
+    }
+
+    /**
+     * Appends "name: value\r\n" without going through String or a charset encoder.
+     * name must be ASCII.
+     */
+    static void putHeader(ByteBuffer target, String name, long value) {
+        for (int i = 0; i < name.length(); i++) {
+            target.put((byte) name.charAt(i));
+        }
+        target.put((byte) ':').put((byte) ' ');
+        putDigits(target, value);
+        target.put((byte) '\r').put((byte) '\n');
+    }
+
+    private static void putDigits(ByteBuffer target, long value) {
+        if (value < 0) {
+            target.put((byte) '-');
+            value = -value;
+        }
+        int start = target.position();
+        do {
+            target.put((byte) ('0' + (value % 10)));
+            value /= 10;
+        } while (value > 0);
+        // Digits were written least-significant first - reverse them in place
+        for (int i = start, j = target.position() - 1; i < j; i++, j--) {
+            byte tmp = target.get(i);
+            target.put(i, target.get(j));
+            target.put(j, tmp);
+        }
+    }
+
+    /**
+     * contentType null or contentLength < 0 leaves that header out (304).
+     */
+    private static byte[] encodeHead(String status, String contentType, String extraHeaders, long contentLength,
+            boolean keepAlive) {
+        return ("HTTP/1.1 " + status + "\r\n"
+                + (contentType == null ? "" : "Content-Type: " + contentType + "\r\n")
+                + extraHeaders
+                + (contentLength < 0 ? "" : "Content-Length: " + contentLength + "\r\n")
+                + (keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n")
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static ByteBuffer directCopy(byte[] bytes) {
+        return directCopy(bytes, ByteBuffer::allocateDirect);
+    }
+
+    private static ByteBuffer directCopy(byte[] bytes, IntFunction<ByteBuffer> allocate) {
+        ByteBuffer buffer = allocate.apply(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * GET /entries/{id}: one record of data.json instead of all of them.
+ *
+ * data.json is an array of {"id": n, ...} objects. Each object is
+ * re-encoded once, without the whitespace between tokens, into a complete
+ * CachedResponse (head + body), and indexed by its id.
+ *
+ * Key Points:
+ * 1. Open addressing over parallel primitive arrays - int keys, no Integer
+ *    boxing, no HashMap nodes; linear probing at a load factor of at most 1/2
+ * 2. A lookup is one hash plus (usually) one probe, then the same gathering
+ *    write as any cached response: headers and body are already bytes
+ * 3. The id is parsed from the request bytes in place (no path String)
+ * 4. All entry responses share a few direct slabs instead of one direct
+ *    buffer each
+ * 5. Immutable once built - a new data.json gets a new index (OptimizedServer
+ *    rebuilds it on hot reload and swaps it like the response itself)
+ *
+ * Objects without an integer "id", and repeated ids after the first, are
+ * skipped and counted. Any other shape of data.json fails the build.
+ */
+final class EntryIndex {
+    static final String PREFIX = "/entries/";
+    static final EntryIndex EMPTY = new EntryIndex(new int[2], new CachedResponse[2], 0, 0, 0);
+
+    private static final int SLAB_SIZE = 64 * 1024;
+    private static final long NO_ID = Long.MIN_VALUE;
+
+    private final int[] keys;
+    private final CachedResponse[] values; // null marks an empty slot
+    private final int shift;               // 32 - log2(capacity); capacity >= 2, so never 32
+    private final int size;
+    private final int skipped;
+    private final long bytes;
+
+    private EntryIndex(int[] keys, CachedResponse[] values, int size, int skipped, long bytes) {
+        this.keys = keys;
+        this.values = values;
+        this.shift = 32 - Integer.numberOfTrailingZeros(keys.length);
+        this.size = size;
+        this.skipped = skipped;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Indexes the records of a JSON array response (its identity body).
+     */
+    static EntryIndex of(CachedResponse source) throws IOException {
+        return parse(source.bodyBytes());
+    }
+
+    /**
+     * As of(), but a body that is not an array of objects is reported and
+     * gives an index where every id is missing - the whole-file response
+     * is unaffected.
+     */
+    static EntryIndex orEmpty(CachedResponse source) {
+        try {
+            return of(source);
+        } catch (IOException ex) {
+            System.err.println("No entry index, " + PREFIX + "{id} will answer 404: " + ex.getMessage());
+            return EMPTY;
+        }
+    }
+
+    /**
+     * The response for an entry request: the entry, NOT_FOUND for an id that
+     * is not indexed, or null if the path is not under PREFIX at all.
+     */
+    CachedResponse lookup(HttpRequestParser request) {
+        if (!request.pathStartsWith(PREFIX)) {
+            return null;
+        }
+        long id = request.pathNumberAfter(PREFIX);
+        CachedResponse entry = id < 0 || id > Integer.MAX_VALUE ? null : get((int) id);
+        return entry == null ? CachedResponse.NOT_FOUND : entry;
+    }
+
+    /**
+     * The entry with this id, or null.
+     */
+    CachedResponse get(int id) {
+        int mask = keys.length - 1;
+        for (int slot = slot(id, shift); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static int slot(int id, int shift) {
+        return (id * 0x9E3779B9) >>> shift; // Fibonacci hashing: sequential ids spread over the table
+    }
+
+    private static EntryIndex parse(byte[] json) throws IOException {
+        // Pass 1: compact every object of the array and pull out its id
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        int[] ids = new int[64];
+        byte[][] bodies = new byte[64][];
+        int count = 0;
+        int skipped = 0;
+        int i = skipWhitespace(json, 0);
+        if (i == json.length || json[i] != '[') {
+            throw new IOException("Not a JSON array");
+        }
+        i = skipWhitespace(json, i + 1);
+        boolean more = i < json.length && json[i] != ']';
+        while (more) {
+            if (json[i] != '{') {
+                throw new IOException("Array element at byte " + i + " is not an object");
+            }
+            object.reset();
+            i = compactObject(json, i, object);
+            byte[] body = object.toByteArray();
+            long id = topLevelId(body);
+            if (id == NO_ID) {
+                skipped++;
+            } else {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    bodies = Arrays.copyOf(bodies, count * 2);
+                }
+                ids[count] = (int) id;
+                bodies[count++] = body;
+            }
+            i = skipWhitespace(json, i);
+            if (i == json.length || (json[i] != ',' && json[i] != ']')) {
+                throw new IOException("Expected ',' or ']' at byte " + i);
+            }
+            more = json[i] == ',';
+            if (more) {
+                i = skipWhitespace(json, i + 1);
+            }
+        }
+        if (i == json.length) {
+            throw new IOException("Unterminated array");
+        }
+        if (skipWhitespace(json, i + 1) != json.length) {
+            throw new IOException("Unexpected bytes after the array");
+        }
+
+        // Pass 2: encode each object as a response and insert it under its id
+        int capacity = Integer.highestOneBit(Math.max(1, 2 * count - 1)) << 1; // Power of two >= 2 * count
+        int[] keys = new int[capacity];
+        CachedResponse[] values = new CachedResponse[capacity];
+        int shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        IntFunction<ByteBuffer> allocate = slabs();
+        int size = 0;
+        long bytes = 0;
+        for (int n = 0; n < count; n++) {
+            int slot = slot(ids[n], shift);
+            while (values[slot] != null && keys[slot] != ids[n]) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (values[slot] != null) {
+                skipped++; // Repeated id - the first one stays
+                continue;
+            }
+            keys[slot] = ids[n];
+            values[slot] = CachedResponse.ok("application/json", bodies[n], allocate);
+            bytes += values[slot].footprint();
+            size++;
+        }
+        return new EntryIndex(keys, values, size, skipped, bytes);
+    }
+
+    /**
+     * Copies the object starting at from into out without whitespace
+     * outside strings. Returns the offset just past its closing brace.
+     */
+    private static int compactObject(byte[] json, int from, ByteArrayOutputStream out) throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = from; i < json.length; i++) {
+            byte b = json[i];
+            if (inString) {
+                out.write(b);
+                if (b == '\\' && i + 1 < json.length) {
+                    out.write(json[++i]); // Escaped quote or backslash stays inside the string
+                } else if (b == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            switch (b) {
+                case ' ', '\t', '\r', '\n' -> {
+                    continue;
+                }
+                case '"' -> inString = true;
+                case '{', '[' -> depth++;
+                case '}', ']' -> depth--;
+                default -> {
+                }
+            }
+            out.write(b);
+            if (depth == 0) {
+                return i + 1;
+            }
+        }
+        throw new IOException("Unterminated object at byte " + from);
+    }
+
+    /**
+     * The int value of the compacted object's top-level "id" member, or
+     * NO_ID if it has none that fits an int.
+     */
+    private static long topLevelId(byte[] object) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < object.length; i++) {
+            byte b = object[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            } else if (b == '"') {
+                // A member name at depth 1 follows '{' or ','
+                if (depth == 1 && (object[i - 1] == '{' || object[i - 1] == ',') && startsWith(object, i, "\"id\":")) {
+                    return parseInt(object, i + 5);
+                }
+                inString = true;
+            }
+        }
+        return NO_ID;
+    }
+
+    private static long parseInt(byte[] bytes, int from) {
+        int i = from;
+        boolean negative = i < bytes.length && bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (i < bytes.length && bytes[i] >= '0' && bytes[i] <= '9' && digits <= 10) {
+            value = value * 10 + (bytes[i++] - '0');
+            digits++;
+        }
+        // "1.5" or "1e3" is not an int id
+        boolean terminated = i < bytes.length && (bytes[i] == ',' || bytes[i] == '}');
+        value = negative ? -value : value;
+        return digits == 0 || !terminated || value != (int) value ? NO_ID : value;
+    }
+
+    private static boolean startsWith(byte[] bytes, int from, String ascii) {
+        if (bytes.length - from < ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[from + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(byte[] json, int from) {
+        int i = from;
+        while (i < json.length && (json[i] == ' ' || json[i] == '\t' || json[i] == '\r' || json[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Bump allocator over 64 KB direct slabs; a slab is freed once every
+     * response cut from it is unreachable.
+     */
+    private static IntFunction<ByteBuffer> slabs() {
+        ByteBuffer[] slab = { ByteBuffer.allocateDirect(SLAB_SIZE) };
+        return size -> {
+            if (slab[0].remaining() < size) {
+                slab[0] = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, size));
+            }
+            ByteBuffer piece = slab[0].slice(slab[0].position(), size);
+            slab[0].position(slab[0].position() + size);
+            return piece;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return size + " entries (" + bytes + " bytes, " + keys.length + " slots"
+                + (skipped > 0 ? ", " + skipped + " skipped" : "") + ")";
+    }
+}
@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One Selector plus the thread that drives it.
+ *
+ * In single-reactor mode the loop also owns the listening socket. In
+ * multi-reactor mode an acceptor thread hands channels over through
+ * register(), which is the only method called from another thread.
+ *
+ * Pipelined requests are answered in batches: every complete request in the
+ * read buffer is parsed first, and all their responses go out in one
+ * gathering write.
+ *
+ * Connections are persistent per KeepAlivePolicy. Idle connections are
+ * swept by the loop itself once per sweep interval, so no timer thread is
+ * needed.
+ *
+ * With TLS the loop also drives each connection's handshake from readiness
+ * events, then reads and writes through its TlsSession. Connections that
+ * choose h2 through ALPN leave the selector and continue as HTTP/2 on a
+ * virtual thread (ReactorServer.serveHttp2).
+ */
+final class EventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = HttpRequestParser.MAX_HEADER_BYTES;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+
+    private final String name;
+    private final Selector selector;
+    private final ReactorServer server;
+    private final KeepAlivePolicy keepAlive;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final AtomicInteger connections = new AtomicInteger(0);
+    private final List<Connection> handoffs = new ArrayList<>(); // h2 connections leaving the selector
+    private ServerSocketChannel serverChannel; // Only set in single-reactor mode
+    private long lastSweep = System.currentTimeMillis();
+
+    /**
+     * Per-connection state. Lives as the SelectionKey attachment, so the
+     * event loop never has to look anything up.
+     */
+    private static final class Connection {
+        final TlsSession tls; // null for plain HTTP
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final HttpRequestParser parser = new HttpRequestParser(READ_BUFFER_SIZE);
+        final List<ByteBuffer> batch = new ArrayList<>();
+        int requestStart; // Offset of the first unanswered request
+        int served;       // Responses sent on this connection
+        boolean keepOpen;
+        long lastActive = System.currentTimeMillis();
+        ByteBuffer[] pendingWrite;
+
+        Connection(TlsSession tls) {
+            this.tls = tls;
+        }
+    }
+
+    EventLoop(String name, ReactorServer server, KeepAlivePolicy keepAlive) throws IOException {
+        this.name = name;
+        this.server = server;
+        this.keepAlive = keepAlive;
+        this.selector = Selector.open();
+    }
+
+    String name() {
+        return name;
+    }
+
+    int connectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Makes this loop accept connections itself (single-reactor mode).
+     * Must be called before the loop thread starts.
+     */
+    void acceptOn(ServerSocketChannel serverChannel) throws IOException {
+        this.serverChannel = serverChannel;
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hands an accepted channel to this loop. Safe to call from any thread;
+     * the channel is registered by the loop thread on its next iteration.
+     */
+    void register(SocketChannel client) {
+        connections.incrementAndGet();
+        pendingChannels.add(client);
+        // Coalesce wakeups - a burst of accepts only interrupts select() once
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select(SWEEP_INTERVAL_MS);
+                wakeupPending.set(false);
+                startHandoffs();
+                registerPending();
+                processSelectedKeys();
+                sweepIdleConnections();
+            }
+        } catch (ClosedSelectorException ex) {
+            // Selector closed by shutdown() - normal termination
+        } catch (IOException ex) {
+            System.err.println(name + " stopped: " + ex.getMessage());
+        }
+    }
+
+    void shutdown() {
+        try {
+            selector.close(); // Wakes the loop and deregisters every channel
+        } catch (IOException ex) {
+            System.err.println("Error closing selector for " + name + ": " + ex.getMessage());
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel client;
+        while ((client = pendingChannels.poll()) != null) {
+            try {
+                client.configureBlocking(false);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                client.register(selector, SelectionKey.OP_READ, new Connection(server.newTlsSession(client)));
+            } catch (IOException ex) {
+                closeQuietly(client);
+                connections.decrementAndGet();
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            try {
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                } else if (key.isReadable()) {
+                    read(key);
+                } else if (key.isWritable()) {
+                    write(key);
+                }
+            } catch (IOException ex) {
+                if (key.channel() == serverChannel) {
+                    // Accept failures (e.g. fd exhaustion) must not kill the listener
+                    System.err.println("Error accepting connection: " + ex.getMessage());
+                } else {
+                    close(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        // Drain the accept queue - one wakeup may cover many pending connections
+        SocketChannel client;
+        while ((client = serverChannel.accept()) != null) {
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            client.register(selector, SelectionKey.OP_READ, new Connection(server.newTlsSession(client)));
+            connections.incrementAndGet();
+            server.connectionAccepted();
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        if (conn.tls != null && conn.tls.handshaking() && !handshake(key, conn)) {
+            return;
+        }
+        int n = conn.tls == null ? client.read(conn.readBuffer) : conn.tls.read(conn.readBuffer);
+        if (n < 0) {
+            close(key);
+            return;
+        }
+        conn.lastActive = System.currentTimeMillis();
+        serveRequests(key, conn);
+    }
+
+    /**
+     * Drives the TLS handshake. Returns true once requests can be read on
+     * this loop; h2 connections are handed off instead.
+     */
+    private boolean handshake(SelectionKey key, Connection conn) throws IOException {
+        conn.lastActive = System.currentTimeMillis();
+        if (!conn.tls.handshake()) {
+            key.interestOps(conn.tls.wantsWrite() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            return false;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        if (TlsContext.H2.equals(conn.tls.applicationProtocol())) {
+            key.cancel(); // Deregistered by the next select(), only then may the channel block
+            handoffs.add(conn);
+            selector.wakeup();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives h2 connections cancelled on the last iteration to the server.
+     * Their connection count is released when the HTTP/2 thread finishes.
+     */
+    private void startHandoffs() {
+        for (Connection conn : handoffs) {
+            server.serveHttp2(conn.tls, conn.readBuffer.flip(), connections::decrementAndGet);
+        }
+        handoffs.clear();
+    }
+
+    /**
+     * Answers every complete request in the read buffer with one gathering write.
+     */
+    private void serveRequests(SelectionKey key, Connection conn) throws IOException {
+        ByteBuffer buf = conn.readBuffer;
+
+        // 1. Parse Request Headers (HTTP Compliance) - queue a response per complete request
+        conn.keepOpen = true;
+        while (conn.keepOpen) {
+            HttpRequestParser.Result result = conn.parser.parse(buf, conn.requestStart, buf.position());
+            if (result == HttpRequestParser.Result.INCOMPLETE) {
+                if (conn.requestStart > 0 || buf.hasRemaining()) {
+                    break; // Wait for the rest of the request
+                }
+                result = HttpRequestParser.Result.TOO_LARGE; // Head fills the whole buffer
+            }
+            if (result == HttpRequestParser.Result.COMPLETE) {
+                conn.served++;
+                conn.keepOpen = keepAlive.keepOpen(conn.served, conn.parser.canReuseConnection());
+                Collections.addAll(conn.batch, server.cachedResponse(conn.parser, conn.keepOpen));
+                server.requestCompleted();
+                conn.requestStart = conn.parser.requestEnd();
+                conn.parser.reset();
+            } else {
+                // Answer the bad request, then close - the rest of the stream cannot be trusted
+                conn.keepOpen = false;
+                CachedResponse error = result == HttpRequestParser.Result.TOO_LARGE
+                        ? CachedResponse.HEADERS_TOO_LARGE : CachedResponse.BAD_REQUEST;
+                Collections.addAll(conn.batch, error.full(false));
+            }
+        }
+
+        // Drop answered requests; what remains is the start of the next one
+        if (conn.requestStart > 0) {
+            buf.flip().position(conn.requestStart);
+            buf.compact();
+            conn.requestStart = 0;
+            conn.parser.reset(); // Offsets moved - rescan the partial request
+        }
+
+        if (conn.batch.isEmpty()) {
+            return;
+        }
+
+        // 2. Send HTTP Responses (pre-encoded bytes, one write for the whole batch)
+        conn.pendingWrite = conn.batch.toArray(new ByteBuffer[0]);
+        conn.batch.clear();
+        key.interestOps(0);
+        server.writeIssued();
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+
+        if (conn.tls != null && conn.tls.handshaking()) {
+            if (handshake(key, conn)) {
+                read(key); // Requests may have arrived with the client's last flight
+            }
+            return;
+        }
+        if (conn.tls == null) {
+            client.write(conn.pendingWrite);
+        } else {
+            conn.tls.write(conn.pendingWrite);
+        }
+        if (conn.pendingWrite[conn.pendingWrite.length - 1].hasRemaining()
+                || (conn.tls != null && conn.tls.wantsWrite())) {
+            // Socket send buffer is full - resume when the kernel drains it
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        if (!conn.keepOpen) {
+            close(key);
+            return;
+        }
+
+        // Every complete request was answered before writing; wait for more input
+        conn.pendingWrite = null;
+        conn.lastActive = System.currentTimeMillis();
+        key.interestOps(SelectionKey.OP_READ);
+        if (conn.tls != null && conn.tls.hasBufferedInput()) {
+            read(key); // Decrypted requests do not raise another OP_READ
+        }
+    }
+
+    /**
+     * Closes keep-alive connections that have waited longer than the idle
+     * timeout for their next request. Runs at most once per sweep interval.
+     */
+    private void sweepIdleConnections() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < SWEEP_INTERVAL_MS) {
+            return;
+        }
+        lastSweep = now;
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection conn
+                    && conn.pendingWrite == null
+                    && now - conn.lastActive > keepAlive.idleTimeoutMillis()) {
+                close(key);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof Connection conn && conn.tls != null) {
+            closeQuietly(conn.tls); // Sends close_notify first
+        } else {
+            closeQuietly(key.channel());
+        }
+        connections.decrementAndGet();
+    }
+
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to do for a connection we are discarding
+        }
+    }
+}
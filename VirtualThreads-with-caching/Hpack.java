@@ -0,0 +1,339 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression (RFC 7541) for Http2Connection.
+ *
+ * Key Points:
+ * 1. Decoding is complete - static table, dynamic table with eviction, table
+ *    size updates and Huffman-coded strings - because clients use all of it
+ * 2. Encoding is stateless: static-table indexes and literals without
+ *    indexing, so response header blocks never depend on connection state
+ * 3. Huffman decoding walks a binary tree built once from the RFC code table
+ *
+ * One Decoder lives per connection; its dynamic table follows the client's
+ * encoder across every header block on that connection.
+ */
+final class Hpack {
+    static final int DEFAULT_TABLE_SIZE = 4096; // SETTINGS_HEADER_TABLE_SIZE we advertise (the default)
+    private static final int ENTRY_OVERHEAD = 32; // RFC 7541, 4.1
+
+    private static final String[][] STATIC_TABLE = {
+            { ":authority", "" }, { ":method", "GET" }, { ":method", "POST" }, { ":path", "/" },
+            { ":path", "/index.html" }, { ":scheme", "http" }, { ":scheme", "https" }, { ":status", "200" },
+            { ":status", "204" }, { ":status", "206" }, { ":status", "304" }, { ":status", "400" },
+            { ":status", "404" }, { ":status", "500" }, { "accept-charset", "" },
+            { "accept-encoding", "gzip, deflate" }, { "accept-language", "" }, { "accept-ranges", "" },
+            { "accept", "" }, { "access-control-allow-origin", "" }, { "age", "" }, { "allow", "" },
+            { "authorization", "" }, { "cache-control", "" }, { "content-disposition", "" },
+            { "content-encoding", "" }, { "content-language", "" }, { "content-length", "" },
+            { "content-location", "" }, { "content-range", "" }, { "content-type", "" }, { "cookie", "" },
+            { "date", "" }, { "etag", "" }, { "expect", "" }, { "expires", "" }, { "from", "" }, { "host", "" },
+            { "if-match", "" }, { "if-modified-since", "" }, { "if-none-match", "" }, { "if-range", "" },
+            { "if-unmodified-since", "" }, { "last-modified", "" }, { "link", "" }, { "location", "" },
+            { "max-forwards", "" }, { "proxy-authenticate", "" }, { "proxy-authorization", "" }, { "range", "" },
+            { "referer", "" }, { "refresh", "" }, { "retry-after", "" }, { "server", "" }, { "set-cookie", "" },
+            { "strict-transport-security", "" }, { "transfer-encoding", "" }, { "user-agent", "" },
+            { "vary", "" }, { "via", "" }, { "www-authenticate", "" }
+    };
+
+    // Huffman code of every octet plus EOS (256), RFC 7541 Appendix B
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+    private static final int EOS = 256;
+
+    // Decoding tree: TREE[2 * node + bit] is the next node, or -1 - symbol at a leaf
+    private static final int[] TREE = buildTree();
+
+    // Encoder lookups: "name\0value" -> index of an exact entry, name -> index of its first entry
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length; i >= 1; i--) {
+            STATIC_FIELDS.put(STATIC_TABLE[i - 1][0] + '\0' + STATIC_TABLE[i - 1][1], i);
+            STATIC_NAMES.put(STATIC_TABLE[i - 1][0], i);
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * A header block the peer encoded wrongly - a connection error
+     * (COMPRESSION_ERROR) for Http2Connection.
+     */
+    static final class CompressionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CompressionException(String message) {
+            super(message);
+        }
+    }
+
+    interface HeaderConsumer {
+        void header(String name, String value);
+    }
+
+    /**
+     * Decodes header blocks, keeping the dynamic table across them.
+     */
+    static final class Decoder {
+        private final List<String[]> dynamicTable = new ArrayList<>(); // Newest last
+        private final int maxTableSizeLimit;
+        private int maxTableSize;
+        private int tableSize;
+        private byte[] block;
+        private int pos;
+        private int end;
+
+        Decoder(int maxTableSizeLimit) {
+            this.maxTableSizeLimit = maxTableSizeLimit;
+            this.maxTableSize = maxTableSizeLimit;
+        }
+
+        void decode(byte[] block, int length, HeaderConsumer consumer) throws CompressionException {
+            this.block = block;
+            this.pos = 0;
+            this.end = length;
+            while (pos < end) {
+                int b = block[pos] & 0xFF;
+                if ((b & 0x80) != 0) {
+                    // Indexed header field
+                    String[] field = entry(readInt(7));
+                    consumer.header(field[0], field[1]);
+                } else if ((b & 0x40) != 0) {
+                    // Literal with incremental indexing
+                    String[] field = literal(6);
+                    add(field);
+                    consumer.header(field[0], field[1]);
+                } else if ((b & 0x20) != 0) {
+                    // Dynamic table size update
+                    int size = readInt(5);
+                    if (size > maxTableSizeLimit) {
+                        throw new CompressionException("table size update above SETTINGS_HEADER_TABLE_SIZE");
+                    }
+                    maxTableSize = size;
+                    evict();
+                } else {
+                    // Literal without indexing (0000) or never indexed (0001)
+                    String[] field = literal(4);
+                    consumer.header(field[0], field[1]);
+                }
+            }
+        }
+
+        private String[] literal(int prefixBits) throws CompressionException {
+            int index = readInt(prefixBits);
+            String name = index == 0 ? readString() : entry(index)[0];
+            return new String[] { name, readString() };
+        }
+
+        private String[] entry(int index) throws CompressionException {
+            if (index >= 1 && index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            int dynamic = index - STATIC_TABLE.length;
+            if (index < 1 || dynamic > dynamicTable.size()) {
+                throw new CompressionException("header index " + index + " out of range");
+            }
+            return dynamicTable.get(dynamicTable.size() - dynamic);
+        }
+
+        private void add(String[] field) {
+            dynamicTable.add(field);
+            tableSize += field[0].length() + field[1].length() + ENTRY_OVERHEAD;
+            evict(); // An entry larger than the table empties it, as the RFC requires
+        }
+
+        private void evict() {
+            while (tableSize > maxTableSize) {
+                String[] oldest = dynamicTable.remove(0);
+                tableSize -= oldest[0].length() + oldest[1].length() + ENTRY_OVERHEAD;
+            }
+        }
+
+        private int readInt(int prefixBits) throws CompressionException {
+            int max = (1 << prefixBits) - 1;
+            int value = block[pos++] & max;
+            if (value < max) {
+                return value;
+            }
+            int shift = 0;
+            int b;
+            do {
+                if (pos == end || shift > 21) {
+                    throw new CompressionException("bad integer");
+                }
+                b = block[pos++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString() throws CompressionException {
+            if (pos == end) {
+                throw new CompressionException("truncated string");
+            }
+            boolean huffman = (block[pos] & 0x80) != 0;
+            int length = readInt(7);
+            if (length > end - pos) {
+                throw new CompressionException("truncated string");
+            }
+            int from = pos;
+            pos += length;
+            return huffman ? huffmanDecode(block, from, length)
+                    : new String(block, from, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static String huffmanDecode(byte[] src, int from, int length) throws CompressionException {
+        StringBuilder out = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        int pending = 0; // Bits read since the last complete symbol
+        boolean allOnes = true;
+        for (int i = from; i < from + length; i++) {
+            for (int bit = 7; bit >= 0; bit--) {
+                int b = (src[i] >>> bit) & 1;
+                int next = TREE[2 * node + b];
+                if (next < 0) {
+                    int symbol = -1 - next;
+                    if (symbol == EOS) {
+                        throw new CompressionException("EOS in Huffman string");
+                    }
+                    out.append((char) symbol);
+                    node = 0;
+                    pending = 0;
+                    allOnes = true;
+                } else {
+                    node = next;
+                    pending++;
+                    allOnes &= b == 1;
+                }
+            }
+        }
+        // Padding must be the most significant bits of EOS: at most 7 one bits
+        if (pending > 7 || !allOnes) {
+            throw new CompressionException("bad Huffman padding");
+        }
+        return out.toString();
+    }
+
+    private static int[] buildTree() {
+        int[] tree = new int[2 * EOS]; // 257 leaves need 256 internal nodes
+        int nodes = 1;
+        for (int symbol = 0; symbol <= EOS; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int slot = 2 * node + ((code >>> bit) & 1);
+                if (tree[slot] == 0) {
+                    tree[slot] = nodes++;
+                }
+                node = tree[slot];
+            }
+            tree[2 * node + (code & 1)] = -1 - symbol;
+        }
+        return tree;
+    }
+
+    /**
+     * Appends one header field: indexed if the static table has it exactly,
+     * else a literal without indexing (with an indexed name when possible).
+     * name must be lower case; strings are sent raw, not Huffman coded.
+     */
+    static void encodeHeader(ByteArrayOutputStream out, String name, String value) {
+        Integer field = STATIC_FIELDS.get(name + '\0' + value);
+        if (field != null) {
+            writeInt(out, 0x80, 7, field);
+            return;
+        }
+        Integer nameIndex = STATIC_NAMES.get(name);
+        if (nameIndex != null) {
+            writeInt(out, 0x00, 4, nameIndex);
+        } else {
+            out.write(0x00);
+            writeString(out, name);
+        }
+        writeString(out, value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        writeInt(out, 0x00, 7, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
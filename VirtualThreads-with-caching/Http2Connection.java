@@ -0,0 +1,685 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HTTP/2 over cleartext TCP (h2c) for OptimizedServer.
+ *
+ * Still one virtual thread per connection, but the connection carries many
+ * requests at once: every HEADERS frame opens a stream answered from the
+ * same CachedResponse, and the DATA frames of all open streams are
+ * interleaved in one gathering write.
+ *
+ * ReactorServer hands over TLS connections that chose h2 through ALPN; they
+ * run the same loop with a TlsSession as channel and input.
+ *
+ * Key Points:
+ * 1. Both ways in - prior knowledge (client preface on a fresh connection)
+ *    and "Upgrade: h2c" on the first HTTP/1.1 request, answered as stream 1
+ * 2. HPACK request decoding (Hpack) - static and dynamic tables, Huffman
+ * 3. Each stream's request is rebuilt as an HTTP/1.1 head and parsed by
+ *    HttpRequestParser, so Accept-Encoding, 304 and Range behave exactly as
+ *    on HTTP/1.1 and the response comes from the same pre-encoded buffers
+ * 4. Flow control - DATA never exceeds the peer's connection and stream
+ *    windows; blocked streams resume on WINDOW_UPDATE, round-robin
+ * 5. DATA payloads are views of the cached body - nothing copied per stream
+ *
+ * The loop is read-driven: read, handle every complete frame, write what the
+ * windows allow, block for more. Responses only ever wait on the client, so
+ * no second thread is needed.
+ *
+ * Configuration:
+ * -Dhttp2.maxConcurrentStreams=N   SETTINGS_MAX_CONCURRENT_STREAMS (default 256)
+ */
+final class Http2Connection {
+    static final int MAX_CONCURRENT_STREAMS = Integer.getInteger("http2.maxConcurrentStreams", 256);
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int PREFACE_REQUEST_LINE = 18; // "PRI * HTTP/2.0\r\n\r\n" - what HttpRequestParser sees
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Upgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    // Frame types (RFC 9113, 6)
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    // Flags
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    // Error codes
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    // Settings
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int FRAME_HEADER = 9;
+    private static final int MAX_FRAME_SIZE = 16384;      // Largest frame we accept (the protocol default)
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+    private static final int MAX_HEADER_BLOCK = 64 * 1024; // HEADERS + CONTINUATION, before decoding
+    private static final String[] CONNECTION_HEADERS = {
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" };
+
+    /**
+     * Answers one request; the result is an HTTP/1.1 response (head + body views).
+     */
+    interface Handler {
+        ByteBuffer[] respond(HttpRequestParser request);
+    }
+
+    /**
+     * A stream whose response body has not been fully sent.
+     */
+    private static final class Stream {
+        final int id;
+        final ByteBuffer[] body;
+        final boolean remoteClosed; // Request ended with END_STREAM (no request body to come)
+        int bodyIndex;              // First body buffer with bytes left
+        long remaining;
+        long window;
+
+        Stream(int id, ByteBuffer[] body, long remaining, long window, boolean remoteClosed) {
+            this.id = id;
+            this.body = body;
+            this.remaining = remaining;
+            this.window = window;
+            this.remoteClosed = remoteClosed;
+        }
+    }
+
+    /**
+     * A connection error: answered with GOAWAY, then the connection is closed.
+     */
+    private static final class ConnectionError extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int code;
+
+        ConnectionError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    private final GatheringByteChannel channel; // The socket, or a TlsSession for h2 over TLS
+    private final InputStream in;
+    private final Handler handler;
+    private final ByteBuffer input = ByteBuffer.allocate(FRAME_HEADER + MAX_FRAME_SIZE);
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final HttpRequestParser parser = new HttpRequestParser(HttpRequestParser.MAX_HEADER_BYTES);
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<Stream> sendQueue = new ArrayDeque<>(); // Streams with DATA left, round-robin
+    private final List<ByteBuffer> out = new ArrayList<>();
+    private final StringBuilder requestHead = new StringBuilder(256);
+    private byte[] headerBlock = new byte[MAX_FRAME_SIZE];
+    private int headerBlockLength;
+    private int headerBlockStream;  // Stream awaiting CONTINUATION, or 0
+    private boolean headerBlockEndStream;
+    private int lastStreamId;
+    private long connectionWindow = DEFAULT_WINDOW;
+    private long initialWindow = DEFAULT_WINDOW;
+    private int peerMaxFrameSize = MAX_FRAME_SIZE;
+    private boolean goingAway;
+    private long streamsOpened;
+    private int peakStreams;
+    private long writes;
+
+    Http2Connection(GatheringByteChannel channel, InputStream in, Handler handler) {
+        this.channel = channel;
+        this.in = in;
+        this.handler = handler;
+    }
+
+    /**
+     * True if the bytes that HttpRequestParser rejected are the start of the
+     * HTTP/2 client preface.
+     */
+    static boolean isPreface(ByteBuffer buffer, int limit) {
+        if (limit < PREFACE_REQUEST_LINE) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(limit, PREFACE.length); i++) {
+            if (buffer.get(i) != PREFACE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if this HTTP/1.1 request asks to switch to h2c (RFC 7540, 3.2).
+     * A request with a body is answered over HTTP/1.1 instead - the body is
+     * never read, so the bytes after the head would not be HTTP/2 frames.
+     */
+    static boolean wantsUpgrade(HttpRequestParser request) {
+        return request.headerHasToken("upgrade", "h2c") && request.header("http2-settings") >= 0
+                && !request.hasBody();
+    }
+
+    long streamsOpened() {
+        return streamsOpened;
+    }
+
+    int peakStreams() {
+        return peakStreams;
+    }
+
+    long writes() {
+        return writes;
+    }
+
+    /**
+     * Serves the connection until the client closes it or has gone away.
+     * initial holds bytes already read past the HTTP/1.1 part (the client
+     * preface onwards); upgrade is the request that asked for h2c, answered
+     * as stream 1, or null for prior knowledge.
+     */
+    void serve(ByteBuffer initial, HttpRequestParser upgrade) throws IOException {
+        input.put(initial);
+        try {
+            // 1. Server preface: SETTINGS (after the 101 when upgrading)
+            if (upgrade != null) {
+                out.add(ByteBuffer.wrap(SWITCHING_PROTOCOLS));
+            }
+            ByteBuffer settings = frame(SETTINGS, 0, 0, 6);
+            settings.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(MAX_CONCURRENT_STREAMS);
+            out.add(settings.flip());
+            if (upgrade != null) {
+                applySettings(decodeSettingsHeader(upgrade.headerValue("http2-settings")));
+                lastStreamId = 1;
+            }
+            flush();
+
+            // 2. Client preface, then frames until the client is done
+            boolean prefaceSeen = false;
+            while (true) {
+                input.flip();
+                if (!prefaceSeen && input.remaining() >= PREFACE.length) {
+                    byte[] preface = new byte[PREFACE.length];
+                    input.get(preface);
+                    if (!Arrays.equals(preface, PREFACE)) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "bad client preface");
+                    }
+                    prefaceSeen = true;
+                    if (upgrade != null) {
+                        // Answered only now: clients expect nothing but SETTINGS right behind the 101
+                        open(1, handler.respond(upgrade), true);
+                    }
+                }
+                while (prefaceSeen && input.remaining() >= FRAME_HEADER) {
+                    int start = input.position();
+                    int length = (input.get(start) & 0xFF) << 16 | (input.get(start + 1) & 0xFF) << 8
+                            | (input.get(start + 2) & 0xFF);
+                    if (length > MAX_FRAME_SIZE) {
+                        throw new ConnectionError(FRAME_SIZE_ERROR, "frame of " + length + " bytes");
+                    }
+                    if (input.remaining() < FRAME_HEADER + length) {
+                        break; // Wait for the rest of the frame
+                    }
+                    int type = input.get(start + 3) & 0xFF;
+                    int flags = input.get(start + 4) & 0xFF;
+                    int streamId = input.getInt(start + 5) & 0x7FFFFFFF;
+                    ByteBuffer payload = input.slice(start + FRAME_HEADER, length);
+                    input.position(start + FRAME_HEADER + length);
+                    onFrame(type, flags, streamId, payload);
+                }
+                input.compact();
+
+                // 3. Write every response the windows allow, in one gathering write
+                flush();
+                if (goingAway && streams.isEmpty()) {
+                    return;
+                }
+                int n = in.read(input.array(), input.position(), input.remaining());
+                if (n < 0) {
+                    return; // Client closed the connection
+                }
+                input.position(input.position() + n);
+            }
+        } catch (ConnectionError | Hpack.CompressionException ex) {
+            goAway(ex instanceof ConnectionError error ? error.code : COMPRESSION_ERROR);
+            throw ex;
+        } catch (SocketTimeoutException ex) {
+            goAway(NO_ERROR); // Idle past the keep-alive timeout
+            throw ex;
+        }
+    }
+
+    private void onFrame(int type, int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (headerBlockStream != 0 && type != CONTINUATION) {
+            throw new ConnectionError(PROTOCOL_ERROR, "header block interrupted");
+        }
+        switch (type) {
+            case DATA -> onData(flags, streamId, payload);
+            case HEADERS -> onHeaders(flags, streamId, payload);
+            case CONTINUATION -> onContinuation(flags, streamId, payload);
+            case RST_STREAM -> {
+                Stream stream = streams.remove(streamId);
+                if (stream != null) {
+                    sendQueue.remove(stream); // Client cancelled - stop sending its DATA
+                }
+            }
+            case SETTINGS -> onSettings(flags, streamId, payload);
+            case PING -> {
+                if (payload.remaining() != 8) {
+                    throw new ConnectionError(FRAME_SIZE_ERROR, "PING of " + payload.remaining() + " bytes");
+                }
+                if ((flags & ACK) == 0) {
+                    out.add(frame(PING, ACK, 0, 8).put(payload).flip());
+                }
+            }
+            case GOAWAY -> goingAway = true; // Finish the streams in flight, then close
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+            case PUSH_PROMISE -> throw new ConnectionError(PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+            default -> { } // PRIORITY and unknown frame types are ignored
+        }
+    }
+
+    private void onData(int flags, int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new ConnectionError(PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+        }
+        // Request bodies are not used; hand the connection window straight back
+        if (payload.remaining() > 0) {
+            out.add(frame(WINDOW_UPDATE, 0, 0, 4).putInt(payload.remaining()).flip());
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0 || streamId <= lastStreamId) {
+            throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on stream " + streamId);
+        }
+        // Pad Length (1) and Stream Dependency + Weight (5) must fit the frame
+        int fixedFields = ((flags & PADDED) != 0 ? 1 : 0) + ((flags & PRIORITY_FLAG) != 0 ? 5 : 0);
+        if (payload.remaining() < fixedFields) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "HEADERS of " + payload.remaining() + " bytes");
+        }
+        int padding = (flags & PADDED) != 0 ? payload.get() & 0xFF : 0;
+        if ((flags & PRIORITY_FLAG) != 0) {
+            payload.position(payload.position() + 5); // Stream dependency + weight, not used
+        }
+        if (padding > payload.remaining()) {
+            throw new ConnectionError(PROTOCOL_ERROR, "padding exceeds HEADERS payload");
+        }
+        payload.limit(payload.limit() - padding);
+        lastStreamId = streamId;
+        headerBlockStream = streamId;
+        headerBlockEndStream = (flags & END_STREAM) != 0;
+        headerBlockLength = 0;
+        appendHeaderBlock(payload);
+        if ((flags & END_HEADERS) != 0) {
+            endHeaders();
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (streamId == 0 || streamId != headerBlockStream) {
+            throw new ConnectionError(PROTOCOL_ERROR, "unexpected CONTINUATION");
+        }
+        appendHeaderBlock(payload);
+        if ((flags & END_HEADERS) != 0) {
+            endHeaders();
+        }
+    }
+
+    private void appendHeaderBlock(ByteBuffer payload) throws ConnectionError {
+        int length = payload.remaining();
+        if (headerBlockLength + length > MAX_HEADER_BLOCK) {
+            throw new ConnectionError(ENHANCE_YOUR_CALM, "header block over " + MAX_HEADER_BLOCK + " bytes");
+        }
+        if (headerBlockLength + length > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.min(MAX_HEADER_BLOCK, 2 * (headerBlockLength + length)));
+        }
+        payload.get(headerBlock, headerBlockLength, length);
+        headerBlockLength += length;
+    }
+
+    /**
+     * A complete header block: decode it (always - the HPACK table must stay
+     * in step), then answer the stream or refuse it if too many are open.
+     */
+    private void endHeaders() throws IOException {
+        int streamId = headerBlockStream;
+        headerBlockStream = 0;
+        ByteBuffer request = decodeRequest();
+        if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+            out.add(frame(RST_STREAM, 0, streamId, 4).putInt(REFUSED_STREAM).flip());
+            return;
+        }
+
+        HttpRequestParser.Result result = request == null ? HttpRequestParser.Result.MALFORMED
+                : parser.parse(request, 0, request.limit());
+        ByteBuffer[] response;
+        if (result == HttpRequestParser.Result.COMPLETE) {
+            response = handler.respond(parser);
+        } else {
+            CachedResponse error = result == HttpRequestParser.Result.TOO_LARGE
+                    ? CachedResponse.HEADERS_TOO_LARGE : CachedResponse.BAD_REQUEST;
+            response = error.full(true); // A stream error only - the connection stays up
+        }
+        parser.reset();
+        open(streamId, response, headerBlockEndStream);
+    }
+
+    /**
+     * Rebuilds the decoded fields as an HTTP/1.1 request head, or returns
+     * null if the request is malformed (RFC 9113, 8.1.1).
+     */
+    private ByteBuffer decodeRequest() throws IOException {
+        String[] pseudo = new String[3]; // :method, :path, :authority
+        StringBuilder headers = requestHead;
+        headers.setLength(0);
+        boolean[] malformed = { false };
+        decoder.decode(headerBlock, headerBlockLength, (name, value) -> {
+            if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\0') >= 0) {
+                malformed[0] = true;
+            }
+            switch (name) {
+                case ":method" -> pseudo[0] = value;
+                case ":path" -> pseudo[1] = value;
+                case ":authority" -> pseudo[2] = value;
+                case ":scheme" -> { }
+                default -> {
+                    if (name.startsWith(":") || isConnectionHeader(name)) {
+                        malformed[0] = true;
+                    }
+                    headers.append(name).append(": ").append(value).append("\r\n");
+                }
+            }
+        });
+        if (malformed[0] || pseudo[0] == null || pseudo[1] == null
+                || pseudo[1].isEmpty() || pseudo[1].indexOf(' ') >= 0) {
+            return null;
+        }
+        String host = pseudo[2] == null ? "" : "host: " + pseudo[2] + "\r\n";
+        String head = pseudo[0] + " " + pseudo[1] + " HTTP/1.1\r\n" + host + headers + "\r\n";
+        return ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Sends the HEADERS of an HTTP/1.1-framed response and queues its body
+     * for DATA frames.
+     */
+    private void open(int streamId, ByteBuffer[] response, boolean remoteClosed) {
+        streamsOpened++;
+        byte[] block = encodeResponseHead(takeHead(response));
+        long remaining = 0;
+        for (ByteBuffer buffer : response) {
+            remaining += buffer.remaining();
+        }
+
+        // Header block, split into CONTINUATION frames if the peer's frame size demands it
+        int flags = remaining == 0 ? END_STREAM : 0;
+        int type = HEADERS;
+        int offset = 0;
+        do {
+            int length = Math.min(block.length - offset, peerMaxFrameSize);
+            boolean last = offset + length == block.length;
+            out.add(frame(type, (type == HEADERS ? flags : 0) | (last ? END_HEADERS : 0), streamId, length)
+                    .put(block, offset, length).flip());
+            offset += length;
+            type = CONTINUATION;
+        } while (offset < block.length);
+
+        if (remaining > 0) {
+            Stream stream = new Stream(streamId, response, remaining, initialWindow, remoteClosed);
+            streams.put(streamId, stream);
+            sendQueue.add(stream);
+            peakStreams = Math.max(peakStreams, streams.size());
+        } else {
+            closed(streamId, remoteClosed);
+        }
+    }
+
+    /**
+     * Our side of the stream is done. If the client never ended its side
+     * (a request body is still coming), reset it rather than wait for it.
+     */
+    private void closed(int streamId, boolean remoteClosed) {
+        if (!remoteClosed) {
+            out.add(frame(RST_STREAM, 0, streamId, 4).putInt(NO_ERROR).flip());
+        }
+    }
+
+    /**
+     * Reads the status line and headers off the front of an HTTP/1.1
+     * response; what is left in the buffers is the body.
+     */
+    private static String takeHead(ByteBuffer[] response) {
+        StringBuilder head = new StringBuilder(256);
+        for (ByteBuffer buffer : response) {
+            while (buffer.hasRemaining()) {
+                head.append((char) (buffer.get() & 0xFF));
+                int n = head.length();
+                if (n >= 4 && head.charAt(n - 1) == '\n' && head.charAt(n - 3) == '\n'
+                        && head.charAt(n - 2) == '\r' && head.charAt(n - 4) == '\r') {
+                    return head.toString();
+                }
+            }
+        }
+        return head.toString();
+    }
+
+    /**
+     * "HTTP/1.1 200 OK\r\nName: value\r\n..." -> HPACK block with :status and
+     * lower-case names, minus the connection-specific headers h2 forbids.
+     */
+    private static byte[] encodeResponseHead(String head) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(head.length());
+        int lineEnd = head.indexOf("\r\n");
+        Hpack.encodeHeader(block, ":status", head.substring(9, 12)); // "HTTP/1.1 " is 9 chars
+        int lineStart = lineEnd + 2;
+        while ((lineEnd = head.indexOf("\r\n", lineStart)) > lineStart) {
+            int colon = head.indexOf(':', lineStart);
+            String name = head.substring(lineStart, colon).toLowerCase(Locale.ROOT);
+            if (!isConnectionHeader(name)) {
+                Hpack.encodeHeader(block, name, head.substring(colon + 1, lineEnd).trim());
+            }
+            lineStart = lineEnd + 2;
+        }
+        return block.toByteArray();
+    }
+
+    private static boolean isConnectionHeader(String name) {
+        for (String header : CONNECTION_HEADERS) {
+            if (header.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onSettings(int flags, int streamId, ByteBuffer payload) throws ConnectionError {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & ACK) != 0) {
+            if (payload.hasRemaining()) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with a payload");
+            }
+            return;
+        }
+        applySettings(payload);
+        out.add(frame(SETTINGS, ACK, 0, 0).flip());
+    }
+
+    private void applySettings(ByteBuffer payload) throws ConnectionError {
+        if (payload.remaining() % 6 != 0) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS of " + payload.remaining() + " bytes");
+        }
+        while (payload.hasRemaining()) {
+            int id = payload.getShort() & 0xFFFF;
+            long value = payload.getInt() & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_ENABLE_PUSH -> {
+                    if (value > 1) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "ENABLE_PUSH " + value);
+                    }
+                }
+                case SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if (value > MAX_WINDOW) {
+                        throw new ConnectionError(FLOW_CONTROL_ERROR, "INITIAL_WINDOW_SIZE " + value);
+                    }
+                    // Applies to open streams too, as a delta (RFC 9113, 6.9.2)
+                    for (Stream stream : streams.values()) {
+                        stream.window += value - initialWindow;
+                    }
+                    initialWindow = value;
+                }
+                case SETTINGS_MAX_FRAME_SIZE -> {
+                    if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "MAX_FRAME_SIZE " + value);
+                    }
+                    peerMaxFrameSize = (int) value;
+                }
+                default -> { } // HEADER_TABLE_SIZE: our encoder never indexes. Others limit the client only.
+            }
+        }
+    }
+
+    private static ByteBuffer decodeSettingsHeader(String value) throws ConnectionError {
+        try {
+            return ByteBuffer.wrap(Base64.getUrlDecoder().decode(value.trim()));
+        } catch (IllegalArgumentException ex) {
+            throw new ConnectionError(PROTOCOL_ERROR, "bad HTTP2-Settings header");
+        }
+    }
+
+    private void onWindowUpdate(int streamId, ByteBuffer payload) throws ConnectionError {
+        if (payload.remaining() != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + payload.remaining() + " bytes");
+        }
+        int increment = payload.getInt() & 0x7FFFFFFF;
+        if (increment == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "WINDOW_UPDATE of 0");
+        }
+        if (streamId == 0) {
+            connectionWindow += increment;
+            if (connectionWindow > MAX_WINDOW) {
+                throw new ConnectionError(FLOW_CONTROL_ERROR, "connection window overflow");
+            }
+            return;
+        }
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.window += increment; // Updates for finished streams are ignored
+        }
+    }
+
+    /**
+     * Queues DATA for every stream the windows allow - one frame per stream
+     * per pass, so a large response cannot starve the others - then sends
+     * everything queued with one gathering write.
+     */
+    private void flush() throws IOException {
+        boolean progress = true;
+        while (progress && connectionWindow > 0 && !sendQueue.isEmpty()) {
+            progress = false;
+            for (int i = sendQueue.size(); i > 0 && connectionWindow > 0; i--) {
+                Stream stream = sendQueue.poll();
+                int length = (int) Math.min(Math.min(stream.remaining, peerMaxFrameSize),
+                        Math.min(stream.window, connectionWindow));
+                if (length > 0) {
+                    queueData(stream, length);
+                    progress = true;
+                }
+                if (stream.remaining > 0) {
+                    sendQueue.add(stream); // Blocked or not finished - back of the line
+                } else {
+                    streams.remove(stream.id);
+                    closed(stream.id, stream.remoteClosed);
+                }
+            }
+        }
+        write();
+    }
+
+    /**
+     * One DATA frame: a 9-byte header plus views of the next length body bytes.
+     */
+    private void queueData(Stream stream, int length) {
+        stream.remaining -= length;
+        stream.window -= length;
+        connectionWindow -= length;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+        out.add(putFrameHeader(header, DATA, stream.remaining == 0 ? END_STREAM : 0, stream.id, length).flip());
+        int left = length;
+        while (left > 0) {
+            ByteBuffer buffer = stream.body[stream.bodyIndex];
+            if (!buffer.hasRemaining()) {
+                stream.bodyIndex++;
+                continue;
+            }
+            int take = Math.min(left, buffer.remaining());
+            out.add(buffer.duplicate().limit(buffer.position() + take));
+            buffer.position(buffer.position() + take);
+            left -= take;
+        }
+    }
+
+    private void write() throws IOException {
+        if (out.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = out.toArray(new ByteBuffer[0]);
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+        out.clear();
+        writes++;
+    }
+
+    private void goAway(int errorCode) {
+        out.clear(); // Whatever was queued is abandoned
+        out.add(frame(GOAWAY, 0, 0, 8).putInt(lastStreamId).putInt(errorCode).flip());
+        try {
+            write();
+        } catch (IOException ex) {
+            // Peer is already gone - nothing more to tell it
+        }
+    }
+
+    /**
+     * A frame with its 9-byte header written, positioned for length payload bytes.
+     */
+    private static ByteBuffer frame(int type, int flags, int streamId, int length) {
+        return putFrameHeader(ByteBuffer.allocate(FRAME_HEADER + length), type, flags, streamId, length);
+    }
+
+    private static ByteBuffer putFrameHeader(ByteBuffer target, int type, int flags, int streamId, int length) {
+        target.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+        return target.put((byte) type).put((byte) flags).putInt(streamId);
+    }
+}
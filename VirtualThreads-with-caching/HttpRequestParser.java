@@ -0,0 +1,499 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level HTTP/1.x request head parser, shared by OptimizedServer
+ * (blocking) and EventLoop (NIO).
+ *
+ * One instance lives per connection and is reset between requests. It
+ * scans the caller's ByteBuffer in place for the end of the headers and
+ * records the method, path, version and every header as offsets into that
+ * buffer. Nothing is copied and no String is created unless a caller asks
+ * for one (path(), headerValue()).
+ *
+ * Offsets stay valid until the caller moves bytes in the buffer (compact()).
+ */
+final class HttpRequestParser {
+    static final int MAX_HEADER_BYTES = Integer.getInteger("http.maxHeaderBytes", 8192);
+    static final int MAX_HEADERS = 64;
+
+    enum Result {
+        COMPLETE,   // Whole request head is in the buffer
+        INCOMPLETE, // Need more bytes
+        TOO_LARGE,  // Head exceeds maxHeaderBytes or MAX_HEADERS -> 431
+        MALFORMED   // Not an HTTP/1.x request head -> 400
+    }
+
+    private final int maxHeaderBytes;
+    private final int[] nameStart = new int[MAX_HEADERS];
+    private final int[] nameEnd = new int[MAX_HEADERS];
+    private final int[] valueStart = new int[MAX_HEADERS];
+    private final int[] valueEnd = new int[MAX_HEADERS];
+
+    private ByteBuffer buf;
+    private int requestStart;
+    private int requestEnd;
+    private int scanned;
+    private int methodStart, methodEnd;
+    private int pathStart, pathEnd;
+    private int versionStart, versionEnd;
+    private int headerCount;
+
+    HttpRequestParser(int maxHeaderBytes) {
+        this.maxHeaderBytes = maxHeaderBytes;
+    }
+
+    /**
+     * Forgets the last request so the next parse() starts fresh.
+     */
+    void reset() {
+        buf = null;
+        scanned = -1;
+        headerCount = 0;
+    }
+
+    /**
+     * Parses the request head starting at from, using bytes up to limit.
+     * Repeated calls after INCOMPLETE only scan the newly arrived bytes.
+     */
+    Result parse(ByteBuffer buffer, int from, int limit) {
+        if (buf != buffer || requestStart != from || scanned < from) {
+            buf = buffer;
+            requestStart = from;
+            scanned = from;
+        }
+
+        // 1. Find the blank line (LF followed by CRLF or LF) ending the head
+        int end = -1;
+        for (int i = scanned; i < limit; i++) {
+            if (buffer.get(i) == '\n' && i > from
+                    && (buffer.get(i - 1) == '\n'
+                            || (buffer.get(i - 1) == '\r' && i - 1 > from && buffer.get(i - 2) == '\n'))) {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            scanned = limit;
+            return limit - from > maxHeaderBytes ? Result.TOO_LARGE : Result.INCOMPLETE;
+        }
+        if (end - from > maxHeaderBytes) {
+            return Result.TOO_LARGE;
+        }
+        requestEnd = end;
+
+        // 2. Request line: METHOD SP PATH SP VERSION
+        int lineEnd = lineEnd(from, end);
+        methodStart = from;
+        methodEnd = indexOf(' ', methodStart, lineEnd);
+        if (methodEnd <= methodStart) {
+            return Result.MALFORMED;
+        }
+        pathStart = methodEnd + 1;
+        pathEnd = indexOf(' ', pathStart, lineEnd);
+        if (pathEnd <= pathStart) {
+            return Result.MALFORMED;
+        }
+        versionStart = pathEnd + 1;
+        versionEnd = trimEnd(versionStart, lineEnd);
+        if (!regionEquals(versionStart, versionEnd, "HTTP/1.1") && !regionEquals(versionStart, versionEnd, "HTTP/1.0")) {
+            return Result.MALFORMED;
+        }
+
+        // 3. Header lines: NAME ":" OWS VALUE OWS
+        headerCount = 0;
+        int lineStart = nextLine(lineEnd);
+        while (lineStart < end) {
+            lineEnd = lineEnd(lineStart, end);
+            if (lineEnd == lineStart) {
+                break; // Blank line - end of head
+            }
+            if (headerCount == MAX_HEADERS) {
+                return Result.TOO_LARGE;
+            }
+            int colon = indexOf(':', lineStart, lineEnd);
+            if (colon <= lineStart) {
+                return Result.MALFORMED;
+            }
+            int value = colon + 1;
+            while (value < lineEnd && (buffer.get(value) == ' ' || buffer.get(value) == '\t')) {
+                value++;
+            }
+            nameStart[headerCount] = lineStart;
+            nameEnd[headerCount] = colon;
+            valueStart[headerCount] = value;
+            valueEnd[headerCount] = trimEnd(value, lineEnd);
+            headerCount++;
+            lineStart = nextLine(lineEnd);
+        }
+        return Result.COMPLETE;
+    }
+
+    /**
+     * Offset just past the blank line of the last COMPLETE request.
+     */
+    int requestEnd() {
+        return requestEnd;
+    }
+
+    boolean methodIs(String method) {
+        return regionEquals(methodStart, methodEnd, method);
+    }
+
+    boolean pathEquals(String path) {
+        return regionEquals(pathStart, pathEnd, path);
+    }
+
+    boolean pathStartsWith(String prefix) {
+        return pathEnd - pathStart >= prefix.length() && regionEquals(pathStart, pathStart + prefix.length(), prefix);
+    }
+
+    int pathStart() {
+        return pathStart;
+    }
+
+    int pathEnd() {
+        return pathEnd;
+    }
+
+    /**
+     * Allocates - only for handlers that really need the path as text.
+     */
+    String path() {
+        return ascii(pathStart, pathEnd);
+    }
+
+    /**
+     * The non-negative decimal that makes up the rest of the path after
+     * prefix (a query string is ignored), or -1 if the path is anything
+     * else. Reads the bytes in place - no path String.
+     */
+    long pathNumberAfter(String prefix) {
+        if (!pathStartsWith(prefix)) {
+            return -1;
+        }
+        int from = pathStart + prefix.length();
+        int query = indexOf('?', from, pathEnd);
+        long value = parseDigits(from, query < 0 ? pathEnd : query);
+        return value < 0 ? -1 : value;
+    }
+
+    boolean isHttp11() {
+        return buf.get(versionEnd - 1) == '1';
+    }
+
+    int headerCount() {
+        return headerCount;
+    }
+
+    /**
+     * Index of the first header with this name (case-insensitive), or -1.
+     * name must be lower-case ASCII.
+     */
+    int header(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEqualsIgnoreCase(nameStart[i], nameEnd[i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int headerValueStart(int index) {
+        return valueStart[index];
+    }
+
+    int headerValueEnd(int index) {
+        return valueEnd[index];
+    }
+
+    /**
+     * Allocates - returns null when the header is absent.
+     */
+    String headerValue(String name) {
+        int index = header(name);
+        return index < 0 ? null : ascii(valueStart[index], valueEnd[index]);
+    }
+
+    /**
+     * True if the comma-separated header value contains token (case-insensitive).
+     * token must be lower-case ASCII.
+     */
+    boolean headerHasToken(String name, String token) {
+        int index = header(name);
+        if (index < 0) {
+            return false;
+        }
+        int pos = valueStart[index];
+        int end = valueEnd[index];
+        while (pos < end) {
+            int comma = indexOf(',', pos, end);
+            int tokenEnd = comma < 0 ? end : comma;
+            int from = pos;
+            while (from < tokenEnd && buf.get(from) == ' ') {
+                from++;
+            }
+            if (regionEqualsIgnoreCase(from, trimEnd(from, tokenEnd), token)) {
+                return true;
+            }
+            pos = tokenEnd + 1;
+        }
+        return false;
+    }
+
+    boolean headerValueEquals(int index, String value) {
+        return regionEquals(valueStart[index], valueEnd[index], value);
+    }
+
+    /**
+     * If-None-Match semantics: true if the header at index is "*" or lists
+     * etag (quoted). Uses weak comparison, so a W/ prefix is ignored.
+     */
+    boolean entityTagListMatches(int index, String etag) {
+        int pos = valueStart[index];
+        int end = valueEnd[index];
+        while (pos < end) {
+            int comma = indexOf(',', pos, end);
+            int elementEnd = trimEnd(pos, comma < 0 ? end : comma);
+            int from = pos;
+            while (from < elementEnd && buf.get(from) == ' ') {
+                from++;
+            }
+            if (elementEnd - from >= 2 && buf.get(from) == 'W' && buf.get(from + 1) == '/') {
+                from += 2;
+            }
+            if (regionEquals(from, elementEnd, "*") || regionEquals(from, elementEnd, etag)) {
+                return true;
+            }
+            pos = (comma < 0 ? end : comma) + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Parses the "bytes=" Range header at index against a representation of
+     * length bytes into starts/ends (inclusive). Returns the number of
+     * satisfiable ranges, 0 if none is satisfiable (416), or -1 if the
+     * header must be ignored: another unit, bad syntax, or more ranges than
+     * the arrays hold.
+     */
+    int byteRanges(int index, long length, long[] starts, long[] ends) {
+        int pos = valueStart[index];
+        int end = valueEnd[index];
+        if (!regionEqualsIgnoreCase(pos, Math.min(pos + 6, end), "bytes=")) {
+            return -1;
+        }
+        pos += 6;
+        int count = 0;
+        boolean any = false;
+        while (pos < end) {
+            int comma = indexOf(',', pos, end);
+            int elementEnd = trimEnd(pos, comma < 0 ? end : comma);
+            while (pos < elementEnd && buf.get(pos) == ' ') {
+                pos++;
+            }
+            if (pos < elementEnd) { // Empty list elements are allowed
+                any = true;
+                int dash = indexOf('-', pos, elementEnd);
+                if (dash < 0) {
+                    return -1;
+                }
+                long first = parseDigits(pos, dash);
+                long last = parseDigits(dash + 1, elementEnd);
+                long start;
+                long stop;
+                if (first == -1) {
+                    // Suffix range "-n": the last n bytes
+                    if (last < 0) {
+                        return -1;
+                    }
+                    start = Math.max(0, length - last);
+                    stop = last == 0 ? -1 : length - 1;
+                } else {
+                    if (first < -1 || last < -1 || (last >= 0 && last < first)) {
+                        return -1;
+                    }
+                    start = first;
+                    stop = last == -1 ? length - 1 : Math.min(last, length - 1);
+                }
+                if (start < length && start <= stop) {
+                    if (count == starts.length) {
+                        return -1;
+                    }
+                    starts[count] = start;
+                    ends[count] = stop;
+                    count++;
+                }
+            }
+            pos = (comma < 0 ? end : comma) + 1;
+        }
+        return any ? count : -1;
+    }
+
+    /**
+     * Non-negative decimal in [from, to): -1 if empty, -2 if not digits or too long.
+     */
+    private long parseDigits(int from, int to) {
+        if (from == to) {
+            return -1;
+        }
+        if (to - from > 18) {
+            return -2;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -2;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * True if Accept-Encoding allows coding (lower-case ASCII): listed by
+     * name or matched by "*", and not weighted q=0.
+     */
+    boolean acceptsEncoding(String coding) {
+        int index = header("accept-encoding");
+        if (index < 0) {
+            return false;
+        }
+        int pos = valueStart[index];
+        int end = valueEnd[index];
+        int wildcard = -1; // -1 absent, 0 refused, 1 accepted
+        while (pos < end) {
+            int comma = indexOf(',', pos, end);
+            int elementEnd = comma < 0 ? end : comma;
+            int semicolon = indexOf(';', pos, elementEnd);
+            int nameEnd = trimEnd(pos, semicolon < 0 ? elementEnd : semicolon);
+            int from = pos;
+            while (from < nameEnd && buf.get(from) == ' ') {
+                from++;
+            }
+            boolean accepted = semicolon < 0 || !zeroWeight(semicolon + 1, elementEnd);
+            if (regionEqualsIgnoreCase(from, nameEnd, coding)) {
+                return accepted;
+            }
+            if (regionEquals(from, nameEnd, "*")) {
+                wildcard = accepted ? 1 : 0;
+            }
+            pos = elementEnd + 1;
+        }
+        return wildcard == 1;
+    }
+
+    /**
+     * True if the parameters hold q=0 (or 0.0, 0.00, 0.000).
+     */
+    private boolean zeroWeight(int from, int to) {
+        int q = from;
+        while (q < to && buf.get(q) == ' ') {
+            q++;
+        }
+        if (q + 2 > to || (buf.get(q) != 'q' && buf.get(q) != 'Q') || buf.get(q + 1) != '=') {
+            return false;
+        }
+        int end = trimEnd(q + 2, to);
+        for (int i = q + 2; i < end; i++) {
+            if (buf.get(i) != '0' && buf.get(i) != '.') {
+                return false;
+            }
+        }
+        return end > q + 2;
+    }
+
+    /**
+     * HTTP/1.1 defaults to persistent, HTTP/1.0 to close; the Connection
+     * header overrides either default.
+     */
+    boolean clientWantsKeepAlive() {
+        return KeepAlivePolicy.clientWantsKeepAlive(isHttp11(),
+                headerHasToken("connection", "close"), headerHasToken("connection", "keep-alive"));
+    }
+
+    /**
+     * True if a body follows the head: any Transfer-Encoding, or a
+     * Content-Length other than 0. Bodies are never read here.
+     */
+    boolean hasBody() {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEqualsIgnoreCase(nameStart[i], nameEnd[i], "transfer-encoding")
+                    || (regionEqualsIgnoreCase(nameStart[i], nameEnd[i], "content-length")
+                            && !regionEquals(valueStart[i], valueEnd[i], "0"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * clientWantsKeepAlive(), unless a body follows the head: its bytes
+     * would be parsed as the next request (request smuggling behind a
+     * proxy), so such a connection closes after the response instead.
+     */
+    boolean canReuseConnection() {
+        return clientWantsKeepAlive() && !hasBody();
+    }
+
+    private int lineEnd(int from, int limit) {
+        int lf = indexOf('\n', from, limit);
+        int end = lf < 0 ? limit : lf;
+        return end > from && buf.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    private int nextLine(int lineEnd) {
+        return buf.get(lineEnd) == '\r' ? lineEnd + 2 : lineEnd + 1;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int trimEnd(int from, int to) {
+        while (to > from && (buf.get(to - 1) == ' ' || buf.get(to - 1) == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private boolean regionEquals(int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buf.get(from + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int from, int to, String lowerCase) {
+        if (to - from != lowerCase.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length(); i++) {
+            int b = buf.get(from + i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String ascii(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buf.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Minimal io_uring binding over java.lang.foreign - no JNI, no liburing.
+ *
+ * Talks to the kernel with the raw io_uring_setup / io_uring_enter syscalls
+ * (through libc's syscall()) and drives the mmap'ed submission and
+ * completion rings directly. Only the opcodes UringTransport needs are
+ * exposed: accept, recv, writev, close and timeout.
+ *
+ * prep*() only fills in an SQE; nothing reaches the kernel until
+ * submitAndWait(), so all work queued while handling one batch of
+ * completions goes out in a single io_uring_enter call.
+ *
+ * Not thread-safe - one ring belongs to one event loop thread.
+ */
+final class IoUring implements AutoCloseable {
+    // Syscall numbers are the same on every 64-bit Linux architecture
+    private static final long SYS_IO_URING_SETUP = 425;
+    private static final long SYS_IO_URING_ENTER = 426;
+
+    private static final int IORING_ENTER_GETEVENTS = 1;
+    private static final int IORING_FEAT_FAST_POLL = 1 << 5; // 5.7+: recv/accept without a worker thread
+    private static final long IORING_OFF_SQ_RING = 0L;
+    private static final long IORING_OFF_CQ_RING = 0x8000000L;
+    private static final long IORING_OFF_SQES = 0x10000000L;
+
+    private static final byte IORING_OP_WRITEV = 2;
+    private static final byte IORING_OP_TIMEOUT = 11;
+    private static final byte IORING_OP_ACCEPT = 13;
+    private static final byte IORING_OP_CLOSE = 19;
+    private static final byte IORING_OP_RECV = 27;
+
+    private static final int EINTR = 4;
+    private static final int EAGAIN = 11;
+    private static final int EBUSY = 16;
+
+    private static final int SUBMIT_RETRIES = 16;
+
+    private static final int SQE_SIZE = 64;
+    private static final int CQE_SIZE = 16;
+    private static final int PARAMS_SIZE = 120;
+    static final int IOVEC_SIZE = 16;
+
+    private static final int PROT_READ_WRITE = 0x1 | 0x2;
+    private static final int MAP_SHARED_POPULATE = 0x01 | 0x8000;
+    private static final int AF_INET = 2;
+    private static final int SOCK_STREAM = 1;
+    private static final int SOL_SOCKET = 1;
+    private static final int SO_REUSEADDR = 2;
+    private static final int IPPROTO_TCP = 6;
+    private static final int TCP_NODELAY = 1;
+    private static final int SHUT_RDWR = 2;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final Linker.Option ERRNO = Linker.Option.captureCallState("errno");
+    private static final MemoryLayout CALL_STATE = Linker.Option.captureStateLayout();
+    private static final long ERRNO_OFFSET = CALL_STATE.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static final MethodHandle SYSCALL = downcall("syscall",
+            FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG,
+                    ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG,
+                    ValueLayout.JAVA_LONG),
+            ERRNO, Linker.Option.firstVariadicArg(1));
+    private static final MethodHandle MMAP = downcall("mmap",
+            FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                    ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG));
+    private static final MethodHandle MUNMAP = downcall("munmap",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+    private static final MethodHandle SOCKET = downcall("socket",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT), ERRNO);
+    private static final MethodHandle SETSOCKOPT = downcall("setsockopt",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT,
+                    ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT), ERRNO);
+    private static final MethodHandle BIND = downcall("bind",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS,
+                    ValueLayout.JAVA_INT), ERRNO);
+    private static final MethodHandle LISTEN = downcall("listen",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), ERRNO);
+    private static final MethodHandle SHUTDOWN = downcall("shutdown",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+    private static final MethodHandle CLOSE = downcall("close",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+
+    /**
+     * Receives completions: user_data and res of each CQE.
+     */
+    interface CompletionHandler {
+        void complete(long userData, int result);
+    }
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment callState = arena.allocate(CALL_STATE);
+    private final MemorySegment intOption = arena.allocate(ValueLayout.JAVA_INT);
+    private final int ringFd;
+    private final int entries;
+    private final MemorySegment sqRing;
+    private final MemorySegment cqRing;
+    private final MemorySegment sqes;
+    private final long sqRingSize;
+    private final long cqRingSize;
+    private final long sqHead, sqTail, sqMask;
+    private final long cqHead, cqTail, cqMask, cqes;
+    private int sqeTail;       // Local tail, published to the kernel on submit
+    private int pendingSubmit; // SQEs prepared but not yet taken by the kernel
+
+    /**
+     * Sets up a ring with the given number of SQ entries.
+     * Throws IOException when io_uring cannot be used on this kernel.
+     */
+    IoUring(int requestedEntries) throws IOException {
+        MemorySegment params = arena.allocate(PARAMS_SIZE, 8);
+        long fd = syscall(SYS_IO_URING_SETUP, requestedEntries, params.address(), 0);
+        if (fd < 0) {
+            arena.close();
+            throw new IOException("io_uring_setup failed (errno " + -fd + ")");
+        }
+        this.ringFd = (int) fd;
+        if ((params.get(ValueLayout.JAVA_INT, 20) & IORING_FEAT_FAST_POLL) == 0) {
+            close(ringFd);
+            arena.close();
+            throw new IOException("io_uring lacks FEAT_FAST_POLL (kernel 5.7+ required)");
+        }
+        this.entries = params.get(ValueLayout.JAVA_INT, 0);
+        int cqEntries = params.get(ValueLayout.JAVA_INT, 4);
+
+        // struct io_sqring_offsets starts at 40, struct io_cqring_offsets at 80
+        sqHead = params.get(ValueLayout.JAVA_INT, 40);
+        sqTail = params.get(ValueLayout.JAVA_INT, 44);
+        sqMask = params.get(ValueLayout.JAVA_INT, 48);
+        long sqArray = params.get(ValueLayout.JAVA_INT, 64);
+        cqHead = params.get(ValueLayout.JAVA_INT, 80);
+        cqTail = params.get(ValueLayout.JAVA_INT, 84);
+        cqMask = params.get(ValueLayout.JAVA_INT, 88);
+        cqes = params.get(ValueLayout.JAVA_INT, 100);
+
+        sqRingSize = sqArray + (long) entries * Integer.BYTES;
+        cqRingSize = cqes + (long) cqEntries * CQE_SIZE;
+        sqRing = mmap(sqRingSize, IORING_OFF_SQ_RING);
+        cqRing = mmap(cqRingSize, IORING_OFF_CQ_RING);
+        sqes = mmap((long) entries * SQE_SIZE, IORING_OFF_SQES);
+
+        // Identity-map the SQ index array once; SQE i always sits in slot i
+        for (int i = 0; i < entries; i++) {
+            sqRing.set(ValueLayout.JAVA_INT, sqArray + (long) i * Integer.BYTES, i);
+        }
+        sqeTail = sqRing.get(ValueLayout.JAVA_INT, sqTail);
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    /**
+     * Native memory that lives as long as the ring (read buffers, iovecs).
+     */
+    MemorySegment allocate(long bytes) {
+        return arena.allocate(bytes, 8);
+    }
+
+    void prepAccept(int listenFd, long userData) {
+        prep(IORING_OP_ACCEPT, listenFd, 0, 0, 0, userData);
+    }
+
+    void prepRecv(int fd, MemorySegment buffer, long userData) {
+        prep(IORING_OP_RECV, fd, 0, buffer.address(), (int) buffer.byteSize(), userData);
+    }
+
+    /**
+     * Gathering write of count struct iovec {base, len} entries.
+     */
+    void prepWritev(int fd, MemorySegment iovecs, int count, long userData) {
+        prep(IORING_OP_WRITEV, fd, -1, iovecs.address(), count, userData);
+    }
+
+    void prepClose(int fd, long userData) {
+        prep(IORING_OP_CLOSE, fd, 0, 0, 0, userData);
+    }
+
+    /**
+     * Completes with -ETIME once the struct __kernel_timespec elapses.
+     */
+    void prepTimeout(MemorySegment timespec, long userData) {
+        prep(IORING_OP_TIMEOUT, -1, 0, timespec.address(), 1, userData);
+    }
+
+    private void prep(byte opcode, int fd, long offset, long address, int length, long userData) {
+        if (sqeTail - sqRing.get(ValueLayout.JAVA_INT, sqHead) == entries) {
+            makeRoom();
+        }
+        long sqe = (long) (sqeTail & sqRing.get(ValueLayout.JAVA_INT, sqMask)) * SQE_SIZE;
+        sqes.asSlice(sqe, SQE_SIZE).fill((byte) 0);
+        sqes.set(ValueLayout.JAVA_BYTE, sqe, opcode);
+        sqes.set(ValueLayout.JAVA_INT, sqe + 4, fd);
+        sqes.set(ValueLayout.JAVA_LONG, sqe + 8, offset);
+        sqes.set(ValueLayout.JAVA_LONG, sqe + 16, address);
+        sqes.set(ValueLayout.JAVA_INT, sqe + 24, length);
+        sqes.set(ValueLayout.JAVA_LONG, sqe + 32, userData);
+        sqeTail++;
+        pendingSubmit++;
+    }
+
+    /**
+     * SQ full: hands what we have to the kernel until it has consumed at
+     * least one slot. submit() returns 0 without taking anything while the
+     * completion queue is backed up, so the head is re-read after every try;
+     * drainCompletions() frees each CQE before its handler runs, which gives
+     * the kernel room to flush. A slot the kernel has not consumed is never
+     * reused - if it still takes nothing, fail instead of losing a request.
+     */
+    private void makeRoom() {
+        for (int attempt = 0; attempt < SUBMIT_RETRIES; attempt++) {
+            submit(0);
+            VarHandle.acquireFence(); // Re-read the head the kernel just advanced
+            if (sqeTail - sqRing.get(ValueLayout.JAVA_INT, sqHead) < entries) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        throw new IllegalStateException("io_uring submission queue full: kernel took none of "
+                + entries + " SQEs after " + SUBMIT_RETRIES + " submits (completion queue overflow)");
+    }
+
+    /**
+     * Publishes every prepared SQE and blocks until at least one completion
+     * is available. Returns the number of SQEs the kernel took.
+     */
+    int submitAndWait() {
+        return submit(1);
+    }
+
+    private int submit(int waitFor) {
+        VarHandle.releaseFence(); // SQE contents must be visible before the new tail
+        sqRing.set(ValueLayout.JAVA_INT, sqTail, sqeTail);
+        while (true) {
+            long ret = syscall(SYS_IO_URING_ENTER, ringFd, pendingSubmit, waitFor,
+                    waitFor > 0 ? IORING_ENTER_GETEVENTS : 0, 0, 0);
+            if (ret >= 0) {
+                pendingSubmit -= (int) ret;
+                return (int) ret;
+            }
+            if (ret == -EINTR) {
+                continue;
+            }
+            if (ret == -EBUSY || ret == -EAGAIN) {
+                return 0; // Completion queue backed up - caller drains it, then we retry
+            }
+            throw new IllegalStateException("io_uring_enter failed (errno " + -ret + ")");
+        }
+    }
+
+    /**
+     * Hands every available CQE to handler. Each slot goes back to the kernel
+     * before its handler runs, so SQEs the handler submits have room to
+     * complete into.
+     */
+    int drainCompletions(CompletionHandler handler) {
+        int head = cqRing.get(ValueLayout.JAVA_INT, cqHead);
+        int tail = cqRing.get(ValueLayout.JAVA_INT, cqTail);
+        VarHandle.acquireFence(); // Read CQE contents only after the tail
+        int mask = cqRing.get(ValueLayout.JAVA_INT, cqMask);
+        int seen = 0;
+        while (head != tail) {
+            long cqe = cqes + (long) (head & mask) * CQE_SIZE;
+            long userData = cqRing.get(ValueLayout.JAVA_LONG, cqe);
+            int res = cqRing.get(ValueLayout.JAVA_INT, cqe + 8);
+            head++;
+            VarHandle.releaseFence(); // CQE read before the kernel may reuse its slot
+            cqRing.set(ValueLayout.JAVA_INT, cqHead, head);
+            handler.complete(userData, res);
+            seen++;
+        }
+        return seen;
+    }
+
+    /**
+     * socket() + SO_REUSEADDR + bind(INADDR_ANY:port) + listen(). Returns the fd.
+     */
+    int listen(int port, int backlog) throws IOException {
+        int fd = check("socket", call(SOCKET, AF_INET, SOCK_STREAM, 0));
+        try {
+            setIntOption(fd, SOL_SOCKET, SO_REUSEADDR, 1);
+            MemorySegment address = arena.allocate(16, 4); // struct sockaddr_in, INADDR_ANY
+            address.set(ValueLayout.JAVA_SHORT, 0, (short) AF_INET);
+            address.set(ValueLayout.JAVA_SHORT.withOrder(ByteOrder.BIG_ENDIAN), 2, (short) port);
+            check("bind", invoke(BIND, fd, address, 16));
+            check("listen", invoke(LISTEN, fd, backlog));
+            return fd;
+        } catch (IOException ex) {
+            close(fd);
+            throw ex;
+        }
+    }
+
+    void setNoDelay(int fd) {
+        try {
+            setIntOption(fd, IPPROTO_TCP, TCP_NODELAY, 1);
+        } catch (IOException ignored) {
+            // Latency tweak only - serve the connection anyway
+        }
+    }
+
+    /**
+     * Wakes any recv pending on fd (it completes with 0); used for idle timeouts.
+     */
+    void shutdownSocket(int fd) {
+        try {
+            int ignored = (int) SHUTDOWN.invokeExact(fd, SHUT_RDWR);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    void close(int fd) {
+        try {
+            int ignored = (int) CLOSE.invokeExact(fd);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        munmap(sqes, (long) entries * SQE_SIZE);
+        munmap(cqRing, cqRingSize);
+        munmap(sqRing, sqRingSize);
+        close(ringFd);
+        arena.close();
+    }
+
+    private void setIntOption(int fd, int level, int option, int value) throws IOException {
+        intOption.set(ValueLayout.JAVA_INT, 0, value);
+        try {
+            check("setsockopt", (int) SETSOCKOPT.invokeExact(callState, fd, level, option, intOption, Integer.BYTES));
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int call(MethodHandle handle, int a, int b, int c) {
+        try {
+            return (int) handle.invokeExact(callState, a, b, c);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int invoke(MethodHandle handle, int fd, MemorySegment address, int length) {
+        try {
+            return (int) handle.invokeExact(callState, fd, address, length);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int invoke(MethodHandle handle, int fd, int value) {
+        try {
+            return (int) handle.invokeExact(callState, fd, value);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int check(String what, int ret) throws IOException {
+        if (ret < 0) {
+            throw new IOException(what + " failed (errno " + callState.get(ValueLayout.JAVA_INT, ERRNO_OFFSET) + ")");
+        }
+        return ret;
+    }
+
+    /**
+     * Raw syscall; returns -errno on failure, like the kernel does.
+     */
+    private long syscall(long number, long a, long b, long c) {
+        return syscall(number, a, b, c, 0, 0, 0);
+    }
+
+    private long syscall(long number, long a, long b, long c, long d, long e, long f) {
+        try {
+            long ret = (long) SYSCALL.invokeExact(callState, number, a, b, c, d, e, f);
+            return ret < 0 ? -callState.get(ValueLayout.JAVA_INT, ERRNO_OFFSET) : ret;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private MemorySegment mmap(long size, long offset) throws IOException {
+        MemorySegment address;
+        try {
+            address = (MemorySegment) MMAP.invokeExact(MemorySegment.NULL, size,
+                    PROT_READ_WRITE, MAP_SHARED_POPULATE, ringFd, offset);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (address.address() == -1L) { // MAP_FAILED
+            throw new IOException("mmap of io_uring ring failed");
+        }
+        return address.reinterpret(size);
+    }
+
+    private static void munmap(MemorySegment segment, long size) {
+        try {
+            int ignored = (int) MUNMAP.invokeExact(segment, size);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, Linker.Option... options) {
+        MemorySegment symbol = LINKER.defaultLookup().find(name)
+                .orElseThrow(() -> new UnsupportedOperationException("libc symbol not found: " + name));
+        return LINKER.downcallHandle(symbol, descriptor, options);
+    }
+}
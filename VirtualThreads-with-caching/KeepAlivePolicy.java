@@ -0,0 +1,65 @@
+/**
+ * HTTP/1.1 persistent connection rules shared by every server in this directory.
+ *
+ * Configuration:
+ * -Dhttp.keepAlive=false              close after every response (the old behavior)
+ * -Dhttp.maxRequestsPerConnection=N   close after N responses on one connection (default 1000)
+ * -Dhttp.idleTimeoutMs=N              close a connection idle between requests for N ms (default 5000)
+ */
+final class KeepAlivePolicy {
+    private final boolean enabled;
+    private final int maxRequests;
+    private final int idleTimeoutMillis;
+
+    KeepAlivePolicy(boolean enabled, int maxRequests, int idleTimeoutMillis) {
+        this.enabled = enabled;
+        this.maxRequests = maxRequests;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    static KeepAlivePolicy fromSystemProperties() {
+        return new KeepAlivePolicy(
+                Boolean.parseBoolean(System.getProperty("http.keepAlive", "true")),
+                Integer.getInteger("http.maxRequestsPerConnection", 1000),
+                Integer.getInteger("http.idleTimeoutMs", 5000));
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    int maxRequests() {
+        return maxRequests;
+    }
+
+    int idleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Decides whether the connection stays open after the response to its
+     * served-th request. The answer goes out in the Connection header.
+     */
+    boolean keepOpen(int served, boolean clientWantsKeepAlive) {
+        return enabled && clientWantsKeepAlive && served < maxRequests;
+    }
+
+    /**
+     * HTTP/1.1 defaults to persistent, HTTP/1.0 to close; an explicit
+     * Connection: close or Connection: keep-alive overrides either default.
+     */
+    static boolean clientWantsKeepAlive(boolean http11, boolean closeRequested, boolean keepAliveRequested) {
+        if (closeRequested) {
+            return false;
+        }
+        return http11 || keepAliveRequested;
+    }
+
+    @Override
+    public String toString() {
+        if (!enabled) {
+            return "disabled (one request per connection)";
+        }
+        return "enabled (max " + maxRequests + " requests, " + idleTimeoutMillis + " ms idle timeout)";
+    }
+}
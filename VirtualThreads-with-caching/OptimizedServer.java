@@ -1,11 +1,24 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -20,92 +33,607 @@ import java.util.concurrent.atomic.AtomicLong;
  * 2. Increased connection backlog (10,000)
  * 3. Connection metrics tracking
  * 4. Proper resource management
+ * 5. Response pre-encoded once - each request is a duplicate() and one gathering write
+ * 6. gzip/deflate variants compressed once at startup, chosen per request from Accept-Encoding
+ * 7. ETag + Last-Modified validators - unchanged pollers get a header-only 304
+ * 8. Range requests answered with 206 views of the cached bytes (no copy of the payload)
+ * 9. HTTP/2 cleartext (h2c) - many concurrent streams on one connection (Http2Connection)
+ * 10. Hot reload - data.json edits are picked up by a WatchService thread and
+ *     swapped in atomically (ReloadingResponse, -Dcache.watch=false to disable);
+ *     -Dcache.ttlMs=N adds a TTL, after which the stale copy is still served
+ *     while one background refresh re-reads the file
+ * 11. Optional document root (-Dcache.root=dir) - other paths are served from a
+ *     byte-bounded segmented-LRU cache of its files (StaticFileCache)
+ * 12. Parallel warmup - data.json and the document root are read, hashed,
+ *     encoded and compressed on a fork-join pool before the port is bound,
+ *     with startup time reported per phase (Warmup)
+ * 13. GET /entries/{id} - one record of data.json, pre-encoded and found in a
+ *     primitive int-keyed open-addressing index (EntryIndex), rebuilt only
+ *     when the data.json ETag changes
+ *
+ * Payload source (-Dpayload.source=heap|mmap|arena):
+ * - heap: data.json copied once into a direct buffer (default)
+ * - mmap: data.json memory-mapped, served from slices of the mapping (page cache backed)
+ * - arena: copied into MemorySegments of one off-heap Arena per loaded version,
+ *          with exact accounting (PayloadArena, compiled and run with
+ *          --enable-preview on JDK 21; falls back to heap without it)
+ *
+ * Persistent connections: see KeepAlivePolicy for -Dhttp.* settings
+ * Pipelined requests already buffered are answered together in one gathering write
+ * Request heads are parsed in place from bytes (HttpRequestParser) - no Reader, no String per line
+ *
+ * Acceptors (-Dserver.acceptors=N, default 1):
+ * - N platform threads call accept() and start a virtual thread per connection
+ * - -Dserver.reusePort=true binds one SO_REUSEPORT socket per acceptor, so the
+ *   kernel spreads connection storms over N accept queues; without it the
+ *   acceptors share one socket, whose accept() the JDK serializes
+ *
+ * HTTP/2 (-Dhttp2.h2c=true by default): a connection that opens with the h2
+ * client preface (prior knowledge), or whose first request carries
+ * "Upgrade: h2c", is handed to Http2Connection on the same virtual thread
+ *
+ * Unix domain socket (-Dserver.unixSocket=/path/server.sock, off by default):
+ * a second listener with the same handlers as port 8010, for clients on the
+ * same host such as a reverse proxy. Requests skip the loopback TCP stack;
+ * UdsBenchmark compares the two.
  */
 public class OptimizedServer {
+    private static final int DYNAMIC_HEADERS_SIZE = 128; // X-Request-ID + X-Active-Connections
+    private static final int MAX_PIPELINE_BATCH = 64;   // Responses coalesced into one write
+    private static final boolean H2C = Boolean.parseBoolean(System.getProperty("http2.h2c", "true"));
+
     private final ExecutorService virtualThreadExecutor;
-    private final String cachedJsonResponse;
+    private final ReloadingResponse cachedJsonResponse;
+    private volatile EntryIndex entryIndex = EntryIndex.EMPTY; // Rebuilt with every data.json version
+    private final AtomicLong entryRequests = new AtomicLong(0);
+    private final StaticFileCache fileCache; // null unless -Dcache.root is set; "/" stays data.json
+    private final KeepAlivePolicy keepAlive;
     private final AtomicLong activeConnections = new AtomicLong(0);
+    private final AtomicLong totalConnections = new AtomicLong(0);
     private final AtomicLong totalRequests = new AtomicLong(0);
+    private final AtomicLong totalWrites = new AtomicLong(0);
+    private final AtomicLong notModifiedResponses = new AtomicLong(0);
+    private final AtomicLong partialResponses = new AtomicLong(0);
+    private final AtomicLong http2Connections = new AtomicLong(0);
+    private final AtomicLong http2Streams = new AtomicLong(0);
+    private final AtomicLong peakConcurrentStreams = new AtomicLong(0); // Most streams open on one connection
+    private final AtomicLong peakAcceptRate = new AtomicLong(0); // Connections accepted in the busiest second
+    private final AtomicLong unixConnections = new AtomicLong(0);
+    private final Set<UnixSocketInput> unixInputs = ConcurrentHashMap.newKeySet(); // Watched by the idle sweeper
+    private volatile long firstAcceptNanos;
+    private volatile long lastAcceptNanos;
 
-    public OptimizedServer() throws IOException {
+    public OptimizedServer(String payloadSource, KeepAlivePolicy keepAlive, StaticFileCache fileCache,
+            Warmup warmup) throws IOException {
         this.virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor();
-        // Cache JSON response in memory to avoid disk I/O on every request
-        this.cachedJsonResponse = new String(Files.readAllBytes(Paths.get("../data.json")));
-        System.out.println("JSON response cached in memory (" + cachedJsonResponse.length() + " bytes)");
+        this.keepAlive = keepAlive;
+        this.fileCache = fileCache;
+        // Cache the fully encoded response in memory to avoid disk I/O and encoding on every request
+        this.cachedJsonResponse = warmup.phase("data.json", () -> ReloadingResponse.load(
+                "application/json", Paths.get("../data.json"), payloadSource, warmup));
+        CachedResponse loaded = cachedJsonResponse.current();
+        System.out.println("JSON response cached (" + payloadSource + ", " + loaded.bodyLength()
+                + " bytes body, " + loaded.totalLength() + " bytes encoded)");
+        System.out.println("Compressed variants: gzip " + loaded.variantLength("gzip")
+                + " bytes, deflate " + loaded.variantLength("deflate") + " bytes");
+        warmup.phase("entry index", () -> {
+            indexEntries(loaded);
+            return null;
+        });
+        cachedJsonResponse.onPublish(this::indexEntries);
+        System.out.println("Entry index: " + entryIndex);
+        if ("arena".equals(payloadSource)) {
+            System.out.println("Off-heap arena: " + CachedResponse.arenaStats());
+        }
     }
 
-    public void handleClient(Socket clientSocket) {
-        long connId = activeConnections.incrementAndGet();
-        long reqId = totalRequests.incrementAndGet();
+    /**
+     * Swaps in the index of a new data.json version - called only when the
+     * ETag changed, so TTL refreshes of the same content keep the index.
+     * A version that is not an array of records keeps the previous index.
+     */
+    private void indexEntries(CachedResponse version) {
+        try {
+            entryIndex = EntryIndex.of(version);
+        } catch (IOException ex) {
+            System.err.println("Entry index not rebuilt, " + EntryIndex.PREFIX + "{id} still serves the previous one: "
+                    + ex.getMessage());
+        }
+    }
 
-        try (
-                PrintWriter toSocket = new PrintWriter(clientSocket.getOutputStream(), true);
-                BufferedReader fromSocket = new BufferedReader(
-                        new InputStreamReader(clientSocket.getInputStream()));
-                clientSocket) {
+    public void handleClient(SocketChannel clientSocket) {
+        long connId = activeConnections.incrementAndGet();
+        totalConnections.incrementAndGet();
+        long reqId = 0;
+        UnixSocketInput unixInput = null;
 
-            // 1. Consume Request Headers (HTTP Compliance)
-            String line = fromSocket.readLine();
-            while (line != null && !line.isEmpty()) {
-                line = fromSocket.readLine();
+        try (clientSocket) {
+            // Idle timeout applies while waiting for the next request on this connection.
+            // Reads go through the socket's stream because it honors SO_TIMEOUT; channel reads do not.
+            InputStream fromSocket;
+            if (clientSocket.getLocalAddress() instanceof UnixDomainSocketAddress) {
+                // Unix domain channels have no socket adaptor - the idle sweeper times their reads out
+                unixInput = new UnixSocketInput(clientSocket);
+                unixInputs.add(unixInput);
+                fromSocket = unixInput;
+            } else {
+                clientSocket.socket().setSoTimeout(keepAlive.idleTimeoutMillis());
+                fromSocket = clientSocket.socket().getInputStream();
             }
+            ByteBuffer readBuffer = ByteBuffer.allocate(HttpRequestParser.MAX_HEADER_BYTES);
+            HttpRequestParser parser = new HttpRequestParser(HttpRequestParser.MAX_HEADER_BYTES);
+            List<ByteBuffer> batch = new ArrayList<>();
+            int requestStart = 0;
+            int queued = 0;
+            int served = 0;
+            boolean open = true;
+            while (open) {
+                // 1. Parse Request Headers (HTTP Compliance) straight from the read buffer
+                HttpRequestParser.Result result = parser.parse(readBuffer, requestStart, readBuffer.position());
+                if (result == HttpRequestParser.Result.INCOMPLETE) {
+                    // Every buffered request is answered - flush the batch before blocking for more
+                    writeBatch(clientSocket, batch);
+                    queued = 0;
+                    if (requestStart > 0) {
+                        readBuffer.flip().position(requestStart);
+                        readBuffer.compact();
+                        requestStart = 0;
+                        parser.reset(); // Offsets moved - rescan the partial request
+                    }
+                    if (readBuffer.hasRemaining()) {
+                        int n = fromSocket.read(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+                        if (n < 0) {
+                            break; // Client closed the connection between requests
+                        }
+                        readBuffer.position(readBuffer.position() + n);
+                        continue;
+                    }
+                    result = HttpRequestParser.Result.TOO_LARGE; // Head fills the whole buffer
+                }
+                if (result == HttpRequestParser.Result.MALFORMED && H2C && served == 0
+                        && Http2Connection.isPreface(readBuffer, readBuffer.position())) {
+                    // h2 with prior knowledge - the whole buffer belongs to the HTTP/2 connection
+                    serveHttp2(clientSocket, fromSocket, readBuffer.flip(), null, connId);
+                    break;
+                }
+                if (result != HttpRequestParser.Result.COMPLETE) {
+                    // Answer the bad request, then close - the rest of the stream cannot be trusted
+                    CachedResponse error = result == HttpRequestParser.Result.TOO_LARGE
+                            ? CachedResponse.HEADERS_TOO_LARGE : CachedResponse.BAD_REQUEST;
+                    Collections.addAll(batch, error.full(false));
+                    break;
+                }
+                if (H2C && served == 0 && Http2Connection.wantsUpgrade(parser)) {
+                    // h2c upgrade - this request becomes stream 1, the bytes after it are HTTP/2
+                    ByteBuffer rest = readBuffer.duplicate().limit(readBuffer.position()).position(parser.requestEnd());
+                    serveHttp2(clientSocket, fromSocket, rest, parser, connId);
+                    break;
+                }
+                served++;
+                reqId = totalRequests.incrementAndGet();
+                open = keepAlive.keepOpen(served, parser.canReuseConnection());
+                requestStart = parser.requestEnd();
 
-            // 2. Send HTTP Response (using cached JSON)
-            toSocket.println("HTTP/1.1 200 OK");
-            toSocket.println("Content-Type: application/json");
-            toSocket.println("Content-Length: " + cachedJsonResponse.length());
-            toSocket.println("X-Request-ID: " + reqId);
-            toSocket.println("X-Active-Connections: " + connId);
-            toSocket.println("");
-            toSocket.println(cachedJsonResponse);
+                // 2. Queue HTTP Response (pre-encoded bytes + per-request headers)
+                Collections.addAll(batch, respond(parser, reqId, connId, open));
+                parser.reset();
 
-            // Log every 1000 requests
-            if (reqId % 1000 == 0) {
-                System.out.printf("Processed %,d requests | Active: %,d | Thread: %s%n",
-                        reqId, connId, Thread.currentThread());
+                // 3. Flush once per read batch (bounded), or when the connection is closing
+                if (++queued == MAX_PIPELINE_BATCH) {
+                    writeBatch(clientSocket, batch);
+                    queued = 0;
+                }
             }
+            writeBatch(clientSocket, batch);
 
+        } catch (SocketTimeoutException ex) {
+            // Idle keep-alive connection timed out - normal close
         } catch (IOException ex) {
             System.err.println("Error handling request #" + reqId + ": " + ex.getMessage());
         } finally {
             activeConnections.decrementAndGet();
+            if (unixInput != null) {
+                unixInputs.remove(unixInput);
+            }
+        }
+    }
+
+    /**
+     * Blocking reads from a Unix domain channel with SO_TIMEOUT semantics: a
+     * read blocked past the idle timeout is ended by the sweeper closing the
+     * channel, and surfaces as SocketTimeoutException like a TCP read.
+     */
+    private static final class UnixSocketInput extends InputStream {
+        private final SocketChannel channel;
+        private volatile long readingSince; // nanoTime the current read started, 0 between reads
+        private volatile boolean timedOut;
+
+        UnixSocketInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            readingSince = System.nanoTime();
+            try {
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            } catch (AsynchronousCloseException ex) {
+                if (timedOut) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                throw ex;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        void closeIfBlockedBefore(long deadline) {
+            long since = readingSince;
+            if (since != 0 && since - deadline < 0) {
+                timedOut = true;
+                try {
+                    channel.close(); // Wakes the blocked read with AsynchronousCloseException
+                } catch (IOException ignored) {
+                    // Nothing left to do for a connection we are discarding
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes Unix domain connections whose read has waited longer than the
+     * idle timeout. Checks once a second, like the reactor's sweep.
+     */
+    private void startUnixIdleSweeper() {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(keepAlive.idleTimeoutMillis());
+        Thread sweeper = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                long deadline = System.nanoTime() - timeoutNanos;
+                for (UnixSocketInput input : unixInputs) {
+                    input.closeIfBlockedBefore(deadline);
+                }
+            }
+        }, "unix-idle-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /**
+     * The response to one parsed request: the cached variant for its
+     * Accept-Encoding, that variant's 304, or a 206/416, with the
+     * per-request headers spliced in. Shared by HTTP/1.1 and HTTP/2 streams.
+     */
+    private ByteBuffer[] respond(HttpRequestParser parser, long reqId, long connId, boolean open) {
+        ByteBuffer dynamicHeaders = ByteBuffer.allocate(DYNAMIC_HEADERS_SIZE);
+        CachedResponse.putHeader(dynamicHeaders, "X-Request-ID", reqId);
+        CachedResponse.putHeader(dynamicHeaders, "X-Active-Connections", connId);
+        dynamicHeaders.flip();
+
+        // Log every 1000 requests
+        if (reqId % 1000 == 0) {
+            System.out.printf("Processed %,d requests | Active: %,d | Thread: %s%n",
+                    reqId, connId, Thread.currentThread());
+        }
+
+        CachedResponse cached = cachedResponse(parser, reqId); // One version for the whole response
+        CachedResponse response = cached.forRequest(parser); // Accept-Encoding, 304
+        if (response.isNotModified()) {
+            notModifiedResponses.incrementAndGet();
+            return response.withHeaders(dynamicHeaders, open);
+        }
+        ByteBuffer[] partial = cached.partial(parser, dynamicHeaders, open); // Range -> 206 / 416
+        if (partial != null) {
+            partialResponses.incrementAndGet();
+            return partial;
+        }
+        return response.withHeaders(dynamicHeaders, open);
+    }
+
+    /**
+     * One entry of data.json for /entries/{id}; data.json for "/" (and for
+     * every other path without a document root); otherwise the file cache's
+     * response for the path.
+     */
+    private CachedResponse cachedResponse(HttpRequestParser parser, long reqId) {
+        CachedResponse entry = entryIndex.lookup(parser); // GET /entries/{id}
+        if (entry != null) {
+            entryRequests.incrementAndGet();
+            return entry;
+        }
+        if (fileCache == null || parser.pathEquals("/")) {
+            return cachedJsonResponse.current();
+        }
+        String path = parser.path();
+        int query = path.indexOf('?');
+        try {
+            return fileCache.get(query < 0 ? path : path.substring(0, query));
+        } catch (IOException ex) {
+            System.err.println("Error loading " + path + " for request #" + reqId + ": " + ex.getMessage());
+            return CachedResponse.SERVER_ERROR;
+        }
+    }
+
+    /**
+     * Runs the rest of the connection as HTTP/2. initial holds the bytes
+     * already read that belong to it; upgrade is the HTTP/1.1 request that
+     * asked for h2c, or null for prior knowledge.
+     */
+    private void serveHttp2(SocketChannel clientSocket, InputStream fromSocket, ByteBuffer initial,
+            HttpRequestParser upgrade, long connId) throws IOException {
+        http2Connections.incrementAndGet();
+        Http2Connection connection = new Http2Connection(clientSocket, fromSocket,
+                request -> respond(request, totalRequests.incrementAndGet(), connId, true));
+        try {
+            connection.serve(initial, upgrade);
+        } finally {
+            http2Streams.addAndGet(connection.streamsOpened());
+            peakConcurrentStreams.accumulateAndGet(connection.peakStreams(), Math::max);
+            totalWrites.addAndGet(connection.writes());
+        }
+    }
+
+    /**
+     * Sends every queued response with one gathering write.
+     */
+    private void writeBatch(SocketChannel clientSocket, List<ByteBuffer> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] responses = batch.toArray(new ByteBuffer[0]);
+        ByteBuffer last = responses[responses.length - 1];
+        while (last.hasRemaining()) {
+            clientSocket.write(responses);
+        }
+        batch.clear();
+        totalWrites.incrementAndGet();
+    }
+
+    /**
+     * One acceptor thread: accepts until its socket is closed.
+     */
+    private void acceptLoop(ServerSocketChannel serverSocket, AtomicLong accepted) {
+        while (serverSocket.isOpen()) {
+            try {
+                SocketChannel clientSocket = serverSocket.accept();
+                recordAccept(accepted);
+                virtualThreadExecutor.execute(() -> handleClient(clientSocket));
+            } catch (ClosedChannelException ex) {
+                break; // Socket closed by the shutdown hook
+            } catch (IOException ex) {
+                // Accept failures (e.g. fd exhaustion) must not kill the acceptor
+                System.err.println("Error accepting connection: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void recordAccept(AtomicLong accepted) {
+        long now = System.nanoTime();
+        if (accepted.incrementAndGet() == 1 && firstAcceptNanos == 0) {
+            firstAcceptNanos = now;
+        }
+        lastAcceptNanos = now;
+    }
+
+    /**
+     * Samples the accept counters once a second to find the peak accept rate.
+     */
+    private void startAcceptRateSampler(AtomicLong[] accepted) {
+        Thread sampler = new Thread(() -> {
+            long previous = 0;
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                long current = sum(accepted);
+                peakAcceptRate.accumulateAndGet(current - previous, Math::max);
+                previous = current;
+            }
+        }, "accept-rate-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    private static long sum(AtomicLong[] counters) {
+        long total = 0;
+        for (AtomicLong counter : counters) {
+            total += counter.get();
+        }
+        return total;
+    }
+
+    private static ServerSocketChannel[] openSockets(int port, int backlog, int acceptors, boolean reusePort)
+            throws IOException {
+        // Without SO_REUSEPORT all acceptors share one socket
+        ServerSocketChannel[] sockets = new ServerSocketChannel[reusePort ? acceptors : 1];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = ServerSocketChannel.open();
+                if (reusePort) {
+                    sockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                // Use larger backlog for high-concurrency scenarios
+                sockets[i].bind(new InetSocketAddress(port), backlog);
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            closeAll(sockets);
+            throw ex;
+        }
+        return sockets;
+    }
+
+    /**
+     * Binds the Unix domain listener, replacing a socket file left behind
+     * by a previous run.
+     */
+    private static ServerSocketChannel openUnixSocket(Path path, int backlog) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel socket = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            socket.bind(UnixDomainSocketAddress.of(path), backlog);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        return socket;
+    }
+
+    private static void closeAll(ServerSocketChannel[] sockets) {
+        for (ServerSocketChannel socket : sockets) {
+            if (socket == null) {
+                continue;
+            }
+            try {
+                socket.close(); // Unblocks the acceptor thread
+            } catch (IOException ex) {
+                System.err.println("Error closing listener: " + ex.getMessage());
+            }
         }
     }
 
     public static void main(String[] args) {
         int port = 8010;
         int backlog = 10000; // Support up to 10,000 queued connections
+        int acceptors = Math.max(1, Integer.getInteger("server.acceptors", 1));
+        boolean reusePort = Boolean.getBoolean("server.reusePort");
+        String payloadSource = CachedResponse.availableSource(System.getProperty("payload.source", "heap"));
+        KeepAlivePolicy keepAlive = KeepAlivePolicy.fromSystemProperties();
+        String unixSocket = System.getProperty("server.unixSocket", "");
+        boolean watch = Boolean.parseBoolean(System.getProperty("cache.watch", "true"));
 
         try {
-            OptimizedServer server = new OptimizedServer();
-
-            // Use larger backlog for high-concurrency scenarios
-            try (ServerSocket serverSocket = new ServerSocket(port, backlog)) {
-                System.out.println("╔════════════════════════════════════════════════════════════╗");
-                System.out.println("║  Virtual Threads Server - Optimized for 20K+ Connections  ║");
-                System.out.println("╚════════════════════════════════════════════════════════════╝");
-                System.out.println("Server listening on port: " + port);
-                System.out.println("Connection backlog: " + backlog);
-                System.out.println("Virtual threads: Unlimited (on-demand)");
-                System.out.println("Memory per thread: ~1-10 KB (vs 1-2 MB for platform threads)");
-                System.out.println("\nPress Ctrl+C to shutdown gracefully...\n");
-
-                // Add shutdown hook for graceful termination
-                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                    System.out.println("\n\nShutdown signal received...");
-                    server.shutdownExecutor();
-                    System.out.println("Final stats:");
-                    System.out.println("  Total requests processed: " + server.totalRequests.get());
-                    System.out.println("  Active connections: " + server.activeConnections.get());
-                }));
-
-                while (true) {
-                    Socket clientSocket = serverSocket.accept();
-                    server.virtualThreadExecutor.execute(() -> server.handleClient(clientSocket));
+            // Warm everything before binding: an open port means a warm cache
+            Warmup warmup = Warmup.fromSystemProperties();
+            StaticFileCache fileCache = StaticFileCache.fromSystemProperties();
+            OptimizedServer server = new OptimizedServer(payloadSource, keepAlive, fileCache, warmup);
+            if (fileCache != null && fileCache.preloadEnabled()) {
+                warmup.phase("document root preload", () -> fileCache.preload(warmup));
+            }
+            warmup.finish();
+
+            ServerSocketChannel[] sockets;
+            try {
+                sockets = openSockets(port, backlog, acceptors, reusePort);
+            } catch (UnsupportedOperationException ex) {
+                System.out.println("SO_REUSEPORT not supported here, acceptors will share one socket");
+                reusePort = false;
+                sockets = openSockets(port, backlog, acceptors, false);
+            }
+            Path unixPath = unixSocket.isEmpty() ? null : Paths.get(unixSocket);
+            ServerSocketChannel unixListener = unixPath == null ? null : openUnixSocket(unixPath, backlog);
+            System.out.println("╔════════════════════════════════════════════════════════════╗");
+            System.out.println("║  Virtual Threads Server - Optimized for 20K+ Connections  ║");
+            System.out.println("╚════════════════════════════════════════════════════════════╝");
+            System.out.println("Server listening on port: " + port);
+            System.out.println("Connection backlog: " + backlog);
+            System.out.println("Acceptor threads: " + acceptors
+                    + (reusePort ? " (one SO_REUSEPORT socket each)" : " (sharing one socket)"));
+            System.out.println("Virtual threads: Unlimited (on-demand)");
+            System.out.println("Memory per thread: ~1-10 KB (vs 1-2 MB for platform threads)");
+            System.out.println("Keep-alive: " + keepAlive);
+            System.out.println("HTTP/2 cleartext (h2c): " + (H2C
+                    ? "prior knowledge + Upgrade, " + Http2Connection.MAX_CONCURRENT_STREAMS + " streams per connection"
+                    : "off"));
+            System.out.println("Unix domain socket: " + (unixPath == null ? "off" : unixPath.toAbsolutePath()));
+            System.out.println("Hot reload: " + (watch ? "watching data.json" : "off"));
+            long ttlMillis = server.cachedJsonResponse.ttlMillis();
+            System.out.println("Cache TTL: " + (ttlMillis > 0
+                    ? ttlMillis + " ms, stale-while-revalidate" : "off"));
+            System.out.println("File cache: " + (fileCache == null ? "off (every path serves data.json)" : fileCache));
+            warmup.printReport();
+            System.out.println("\nPress Ctrl+C to shutdown gracefully...\n");
+
+            AtomicLong[] accepted = new AtomicLong[acceptors]; // Per acceptor, so the threads never contend
+            for (int i = 0; i < acceptors; i++) {
+                accepted[i] = new AtomicLong(0);
+            }
+            ServerSocketChannel[] listeners = sockets;
+
+            // Add shutdown hook for graceful termination
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("\n\nShutdown signal received...");
+                closeAll(listeners);
+                if (unixListener != null) {
+                    closeAll(new ServerSocketChannel[] {unixListener});
+                    try {
+                        Files.deleteIfExists(unixPath);
+                    } catch (IOException ex) {
+                        System.err.println("Error removing " + unixPath + ": " + ex.getMessage());
+                    }
+                }
+                server.cachedJsonResponse.stopWatching();
+                server.shutdownExecutor();
+                long acceptedTotal = sum(accepted) + server.unixConnections.get();
+                double acceptSeconds = (server.lastAcceptNanos - server.firstAcceptNanos) / 1e9;
+                System.out.println("Final stats:");
+                System.out.println("  Total requests processed: " + server.totalRequests.get());
+                System.out.println("  Total connections accepted: " + server.totalConnections.get());
+                System.out.printf("  Requests per connection: %.2f%n",
+                        server.totalRequests.get() / (double) Math.max(1, server.totalConnections.get()));
+                System.out.printf("  Responses per write batch: %.2f%n",
+                        server.totalRequests.get() / (double) Math.max(1, server.totalWrites.get()));
+                System.out.printf("  Accept rate: %.0f/s average, %d/s peak%n",
+                        acceptSeconds > 0 ? (acceptedTotal - 1) / acceptSeconds : 0.0, server.peakAcceptRate.get());
+                System.out.println("  Connections per acceptor: " + Arrays.toString(accepted));
+                System.out.println("  Not modified (304) responses: " + server.notModifiedResponses.get());
+                System.out.println("  Range (206/416) responses: " + server.partialResponses.get());
+                System.out.println("  HTTP/2 (h2c) connections: " + server.http2Connections.get());
+                System.out.println("  HTTP/2 streams: " + server.http2Streams.get());
+                System.out.println("  Peak concurrent streams on one connection: " + server.peakConcurrentStreams.get());
+                System.out.println("  Unix socket connections: " + server.unixConnections.get());
+                System.out.println("  Entry requests (" + EntryIndex.PREFIX + "{id}): " + server.entryRequests.get()
+                        + ", index " + server.entryIndex);
+                if (fileCache != null) {
+                    fileCache.printStats();
+                }
+                System.out.printf("  Cache reloads: %d (%d failed, last took %.1f ms)%n",
+                        server.cachedJsonResponse.reloads(), server.cachedJsonResponse.failedReloads(),
+                        server.cachedJsonResponse.lastReloadNanos() / 1e6);
+                if (server.cachedJsonResponse.ttlMillis() > 0) {
+                    System.out.printf("  Cache TTL %d ms: %,d stale hits, %,d background refreshes%n",
+                            server.cachedJsonResponse.ttlMillis(), server.cachedJsonResponse.staleHits(),
+                            server.cachedJsonResponse.refreshes());
+                }
+                if ("arena".equals(payloadSource)) {
+                    System.out.println("  Off-heap arenas: " + CachedResponse.arenaStats());
                 }
+                System.out.println("  Active connections: " + server.activeConnections.get());
+            }));
+
+            server.startAcceptRateSampler(accepted);
+            if (watch) {
+                server.cachedJsonResponse.startWatching();
+            }
+            if (unixListener != null) {
+                server.startUnixIdleSweeper();
+                new Thread(() -> server.acceptLoop(unixListener, server.unixConnections), "acceptor-unix").start();
+            }
+            Thread[] acceptorThreads = new Thread[acceptors];
+            for (int i = 0; i < acceptors; i++) {
+                ServerSocketChannel serverSocket = sockets[i % sockets.length];
+                AtomicLong acceptedHere = accepted[i];
+                acceptorThreads[i] = new Thread(() -> server.acceptLoop(serverSocket, acceptedHere), "acceptor-" + i);
+                acceptorThreads[i].start();
+            }
+            for (Thread acceptor : acceptorThreads) {
+                acceptor.join();
             }
         } catch (IOException ex) {
             ex.printStackTrace();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -0,0 +1,85 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Off-heap storage for one CachedResponse.load() (-Dpayload.source=arena).
+ *
+ * Every buffer of a load - identity and compressed bodies, heads, 304s -
+ * is a segment of one automatic Arena, handed out as a direct ByteBuffer
+ * view. Socket writes read the segment memory directly (no heap copy, no
+ * temporary direct buffer), and the GC sees only the small view objects.
+ *
+ * Compared with one ByteBuffer.allocateDirect per buffer:
+ * 1. One memory lifetime per loaded version instead of one Cleaner per buffer;
+ *    the arena is freed once no request holds a view of that version any more
+ *    (hot reload keeps in-flight responses valid)
+ * 2. Not limited by -XX:MaxDirectMemorySize, and accounted here exactly:
+ *    live bytes, live arenas and everything ever allocated
+ * 3. Segments are cache-line aligned
+ *
+ * Uses java.lang.foreign, a preview API in JDK 21, so it is compiled on its
+ * own and CachedResponse only loads it by name - the servers build with
+ * plain javac:
+ *   javac --enable-preview --release 21 PayloadArena.java
+ * and run with --enable-preview. CachedResponse.availableSource() falls back
+ * to direct buffers when the class is missing or cannot be loaded.
+ */
+final class PayloadArena implements IntFunction<ByteBuffer> {
+    private static final long ALIGNMENT = 64; // Cache line
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final AtomicLong liveBytes = new AtomicLong(0);
+    private static final AtomicLong liveArenas = new AtomicLong(0);
+    private static final AtomicLong allocatedBytes = new AtomicLong(0);
+
+    private final Arena arena = Arena.ofAuto();
+    private final AtomicLong bytes = new AtomicLong(0); // Shared with the cleanup action, which must not see this
+
+    PayloadArena() {
+        liveArenas.incrementAndGet();
+        AtomicLong arenaBytes = bytes;
+        // The scope is what every segment and view keeps reachable - it goes when the memory goes
+        CLEANER.register(arena.scope(), () -> {
+            liveBytes.addAndGet(-arenaBytes.get());
+            liveArenas.decrementAndGet();
+        });
+    }
+
+    /**
+     * A zeroed, writable direct buffer of size bytes backed by this arena.
+     */
+    @Override
+    public ByteBuffer apply(int size) {
+        MemorySegment segment = arena.allocate(size, ALIGNMENT);
+        bytes.addAndGet(size);
+        liveBytes.addAndGet(size);
+        allocatedBytes.addAndGet(size);
+        return segment.asByteBuffer();
+    }
+
+    /**
+     * Bytes held by arenas that are still reachable.
+     */
+    static long liveBytes() {
+        return liveBytes.get();
+    }
+
+    static long liveArenas() {
+        return liveArenas.get();
+    }
+
+    static long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * One line of accounting for the server's startup and final stats.
+     */
+    static String stats() {
+        return String.format("%,d bytes live in %d arena(s), %,d bytes allocated in total",
+                liveBytes(), liveArenas(), allocatedBytes());
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NIO Reactor Server
+ * Serves the same cached data.json payload as OptimizedServer, but without
+ * parking a thread per connection.
+ *
+ * Key Differences:
+ * 1. Selector event loops multiplex every connection (no thread per socket)
+ * 2. Sockets are non-blocking - a slow client never holds a thread
+ * 3. Response is pre-encoded once into a read-only direct ByteBuffer
+ * 4. Partial writes are resumed on OP_WRITE instead of blocking
+ *
+ * Modes (-Dreactor.workers=N):
+ * - N = 0: single reactor, one loop both accepts and serves
+ * - N > 0: multi-reactor, one acceptor thread feeds N worker loops
+ *          (default: one worker per core)
+ *
+ * Worker selection (-Dreactor.balance=round-robin|least-loaded)
+ * Payload source (-Dpayload.source=heap|mmap|arena), same as OptimizedServer
+ * GET /entries/{id}: one record of data.json (EntryIndex), same as OptimizedServer
+ * Persistent connections: see KeepAlivePolicy for -Dhttp.* settings
+ *
+ * TLS (-Dtls.keystore=server.p12, see TlsContext for the other -Dtls.*
+ * settings): the port speaks HTTPS instead. The event loops run each
+ * SSLEngine handshake without blocking, resume sessions from a bounded cache
+ * or a ticket, and negotiate h2 or http/1.1 through ALPN - h2 connections
+ * continue on a virtual thread with Http2Connection.
+ */
+public final class ReactorServer {
+    private final CachedResponse cachedResponse;
+    private final EntryIndex entryIndex;
+    private final EventLoop[] loops;
+    private final boolean leastLoaded;
+    private final KeepAlivePolicy keepAlive;
+    private final TlsContext tls; // null for plain HTTP
+    private final AtomicLong totalConnections = new AtomicLong(0);
+    private final AtomicLong totalRequests = new AtomicLong(0);
+    private final AtomicLong totalWrites = new AtomicLong(0);
+    private final AtomicLong http2Connections = new AtomicLong(0);
+    private final AtomicLong http2Streams = new AtomicLong(0);
+    private int nextLoop; // Round-robin cursor, only touched by the acceptor thread
+
+    public ReactorServer(int workers, boolean leastLoaded, String payloadSource, KeepAlivePolicy keepAlive,
+            TlsContext tls) throws IOException {
+        // Cache the complete HTTP response (status line + headers + body) as bytes
+        this.cachedResponse = CachedResponse.load("application/json", Paths.get("../data.json"), payloadSource);
+        System.out.println("HTTP response pre-encoded (" + payloadSource + ", " + cachedResponse.totalLength() + " bytes)");
+        this.entryIndex = EntryIndex.orEmpty(cachedResponse);
+        System.out.println("Entry index: " + entryIndex);
+
+        this.leastLoaded = leastLoaded;
+        this.keepAlive = keepAlive;
+        this.tls = tls;
+        this.loops = new EventLoop[Math.max(workers, 1)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(workers == 0 ? "reactor" : "worker-" + i, this, keepAlive);
+        }
+    }
+
+    /**
+     * Returns a fresh view of the pre-encoded response in the encoding the
+     * request accepts (or its 304 / 206); the shared bytes are never copied.
+     */
+    ByteBuffer[] cachedResponse(HttpRequestParser request, boolean keepAlive) {
+        CachedResponse entry = entryIndex.lookup(request); // GET /entries/{id}
+        return (entry != null ? entry : cachedResponse).respond(request, null, keepAlive);
+    }
+
+    /**
+     * TLS state for a newly accepted channel, or null for plain HTTP.
+     */
+    TlsSession newTlsSession(SocketChannel client) {
+        return tls == null ? null : tls.newSession(client);
+    }
+
+    /**
+     * Runs a TLS connection that negotiated h2 on its own virtual thread.
+     * initial holds plaintext the event loop already decrypted; onClose runs
+     * once the connection is closed.
+     */
+    void serveHttp2(TlsSession session, ByteBuffer initial, Runnable onClose) {
+        http2Connections.incrementAndGet();
+        Thread.ofVirtual().name("h2-tls").start(() -> {
+            Http2Connection connection = new Http2Connection(session, session.inputStream(), request -> {
+                requestCompleted();
+                return cachedResponse(request, true);
+            });
+            try {
+                session.blocking(keepAlive.idleTimeoutMillis());
+                connection.serve(initial, null);
+            } catch (IOException ex) {
+                // Client went away, timed out or broke the protocol - the connection just ends
+            } finally {
+                http2Streams.addAndGet(connection.streamsOpened());
+                totalWrites.addAndGet(connection.writes());
+                try {
+                    session.close();
+                } catch (IOException ignored) {
+                    // Nothing left to do for a connection we are discarding
+                }
+                onClose.run();
+            }
+        });
+    }
+
+    void writeIssued() {
+        totalWrites.incrementAndGet();
+    }
+
+    void connectionAccepted() {
+        totalConnections.incrementAndGet();
+    }
+
+    void requestCompleted() {
+        long reqId = totalRequests.incrementAndGet();
+
+        // Log every 1000 requests
+        if (reqId % 1000 == 0) {
+            System.out.printf("Processed %,d requests | Active: %,d | Per loop: %s | Thread: %s%n",
+                    reqId, activeConnections(), Arrays.toString(connectionCounts()),
+                    Thread.currentThread().getName());
+        }
+    }
+
+    long activeConnections() {
+        long total = 0;
+        for (EventLoop loop : loops) {
+            total += loop.connectionCount();
+        }
+        return total;
+    }
+
+    int[] connectionCounts() {
+        int[] counts = new int[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            counts[i] = loops[i].connectionCount();
+        }
+        return counts;
+    }
+
+    /**
+     * Single-reactor mode: the calling thread becomes the only event loop.
+     */
+    public void runSingle(ServerSocketChannel serverChannel) throws IOException {
+        loops[0].acceptOn(serverChannel);
+        loops[0].run();
+    }
+
+    /**
+     * Multi-reactor mode: worker loops get their own threads and the calling
+     * thread becomes the acceptor, blocking in accept() and handing channels off.
+     */
+    public void runMulti(ServerSocketChannel serverChannel) {
+        for (EventLoop loop : loops) {
+            Thread thread = new Thread(loop, loop.name());
+            thread.start();
+        }
+
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                totalConnections.incrementAndGet();
+                nextWorker().register(client);
+            } catch (ClosedChannelException ex) {
+                break; // Listener closed by the shutdown hook
+            } catch (IOException ex) {
+                // Accept failures (e.g. fd exhaustion) must not kill the acceptor
+                System.err.println("Error accepting connection: " + ex.getMessage());
+            }
+        }
+    }
+
+    private EventLoop nextWorker() {
+        if (leastLoaded) {
+            EventLoop best = loops[0];
+            for (int i = 1; i < loops.length; i++) {
+                if (loops[i].connectionCount() < best.connectionCount()) {
+                    best = loops[i];
+                }
+            }
+            return best;
+        }
+        EventLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        return loop;
+    }
+
+    public static void main(String[] args) {
+        serve(8030); // Runs next to OptimizedServer (8010) for side-by-side comparison
+    }
+
+    /**
+     * Runs the reactor on port until shutdown. Also the fallback transport
+     * of UringServer when io_uring is unavailable.
+     */
+    static void serve(int port) {
+        int backlog = 10000; // Same backlog as OptimizedServer for fair comparison
+        int workers = Integer.getInteger("reactor.workers", Runtime.getRuntime().availableProcessors());
+        boolean leastLoaded = "least-loaded".equals(System.getProperty("reactor.balance", "round-robin"));
+        String payloadSource = CachedResponse.availableSource(System.getProperty("payload.source", "heap"));
+        KeepAlivePolicy keepAlive = KeepAlivePolicy.fromSystemProperties();
+
+        try {
+            TlsContext tls = TlsContext.fromSystemProperties();
+            ReactorServer server = new ReactorServer(workers, leastLoaded, payloadSource, keepAlive, tls);
+
+            try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+                serverChannel.bind(new InetSocketAddress(port), backlog);
+                System.out.println("Reactor server listening on port: " + port);
+                System.out.println("Connection backlog: " + backlog);
+                if (workers == 0) {
+                    System.out.println("Event loop threads: 1 (single reactor, accepts and serves)");
+                } else {
+                    System.out.println("Event loop threads: 1 acceptor + " + workers + " workers ("
+                            + (leastLoaded ? "least-loaded" : "round-robin") + ")");
+                }
+                System.out.println("Keep-alive: " + keepAlive);
+                System.out.println("TLS: " + (tls == null ? "off (plain HTTP)" : tls));
+                System.out.println("\nPress Ctrl+C to shutdown gracefully...\n");
+
+                // Add shutdown hook for graceful termination
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    System.out.println("\n\nShutdown signal received...");
+                    server.shutdownLoops(serverChannel);
+                    System.out.println("Final stats:");
+                    System.out.println("  Total requests processed: " + server.totalRequests.get());
+                    System.out.println("  Total connections accepted: " + server.totalConnections.get());
+                    System.out.printf("  Requests per connection: %.2f%n",
+                            server.totalRequests.get() / (double) Math.max(1, server.totalConnections.get()));
+                    System.out.printf("  Responses per write batch: %.2f%n",
+                            server.totalRequests.get() / (double) Math.max(1, server.totalWrites.get()));
+                    System.out.println("  Active connections: " + server.activeConnections());
+                    System.out.println("  Connections per loop: " + Arrays.toString(server.connectionCounts()));
+                    if (tls != null) {
+                        tls.printStats();
+                        System.out.println("  HTTP/2 (h2 over TLS) connections: " + server.http2Connections.get());
+                        System.out.println("  HTTP/2 streams: " + server.http2Streams.get());
+                    }
+                }));
+
+                if (workers == 0) {
+                    server.runSingle(serverChannel);
+                } else {
+                    server.runMulti(serverChannel);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void shutdownLoops(ServerSocketChannel serverChannel) {
+        System.out.println("Closing listener and selectors...");
+        try {
+            serverChannel.close(); // Unblocks the acceptor thread
+        } catch (IOException ex) {
+            System.err.println("Error closing listener: " + ex.getMessage());
+        }
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A CachedResponse that follows its file: a WatchService thread rebuilds it
+ * when the file changes, so new data needs no restart (and no cold JVM).
+ *
+ * Key Points:
+ * 1. Rebuilt off the request path - encoded bytes, gzip/deflate variants,
+ *    ETag and 304s all come from one CachedResponse.load() on the watcher thread
+ * 2. Published with one volatile write; CachedResponse is immutable, so a
+ *    request that read current() sees one whole version, old or new
+ * 3. Readers never block or retry - a volatile read is the whole cost
+ * 4. Bursts of events (editors write, truncate, rename) are settled first;
+ *    a file that changed again while loading is loaded again
+ * 5. A failed reload (missing or unreadable file) keeps the last good version
+ * 6. Optional TTL with stale-while-revalidate (-Dcache.ttlMs): a version older
+ *    than the TTL is still returned at once, and the first request to see it
+ *    stale starts one background refresh - no request waits on the disk after
+ *    the first load. Bounds staleness where file events are unreliable
+ *    (network filesystems, some container mounts) or with the watcher off.
+ *    Refreshes and file events go through the same reload - one at a time,
+ *    with the same torn-read check - and unchanged content only restarts
+ *    the TTL
+ *
+ * In-flight requests hold views of the version they started with, which
+ * stays reachable until they finish. With -Dpayload.source=mmap, replace the
+ * file by rename (mv) rather than rewriting it in place: a mapping shows
+ * in-place writes of the old file immediately.
+ *
+ * Configuration:
+ * -Dcache.watch=true|false     watch the file for changes (default true)
+ * -Dcache.reloadSettleMs=N     quiet period before reloading (default 200)
+ * -Dcache.ttlMs=N              re-read the file in the background once the
+ *                              current version is N ms old (default 0, off)
+ */
+final class ReloadingResponse {
+    private static final int MAX_ATTEMPTS = 5; // Loads per change while the file keeps moving
+
+    private final String contentType;
+    private final Path file;
+    private final String source;
+    private final long settleMillis;
+    private final long ttlNanos;
+    private final ReentrantLock reloadLock = new ReentrantLock(); // One reload at a time: watcher or refresh
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final AtomicLong staleHits = new AtomicLong(0);
+    private final AtomicLong refreshes = new AtomicLong(0);
+    private final AtomicLong reloads = new AtomicLong(0);
+    private final AtomicLong failedReloads = new AtomicLong(0);
+    private final AtomicLong lastReloadNanos = new AtomicLong(0);
+    private volatile CachedResponse current;
+    private volatile long loadedAt; // nanoTime the current version was read (or last revalidated)
+    private volatile Consumer<CachedResponse> onPublish = version -> { };
+    private WatchService watcher;
+
+    private ReloadingResponse(String contentType, Path file, String source, long settleMillis,
+            long ttlMillis, CachedResponse initial) {
+        this.contentType = contentType;
+        this.file = file;
+        this.source = source;
+        this.settleMillis = settleMillis;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.current = initial;
+        this.loadedAt = System.nanoTime();
+    }
+
+    /**
+     * Loads the file once, like CachedResponse.load(), with its steps on
+     * warmup's pool. Reloads later run on the watcher or refresh thread.
+     */
+    static ReloadingResponse load(String contentType, Path file, String source, Warmup warmup) throws IOException {
+        Path absolute = file.toAbsolutePath().normalize();
+        long settleMillis = Long.getLong("cache.reloadSettleMs", 200);
+        long ttlMillis = Long.getLong("cache.ttlMs", 0);
+        return new ReloadingResponse(contentType, absolute, source, settleMillis, ttlMillis,
+                CachedResponse.load(contentType, absolute, source, true, warmup));
+    }
+
+    /**
+     * The version to answer one request with. Read it once per request.
+     * Never blocks: past the TTL the stale version is returned while a
+     * background refresh runs.
+     */
+    CachedResponse current() {
+        CachedResponse response = current;
+        if (ttlNanos > 0 && System.nanoTime() - loadedAt > ttlNanos) {
+            staleHits.incrementAndGet();
+            if (refreshing.compareAndSet(false, true)) {
+                Thread.ofVirtual().name("cache-refresh").start(this::refresh);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Runs listener with every version published after this call, on the
+     * thread that loaded it - for data derived from the response (EntryIndex).
+     * Only a changed ETag is a new version: reloads and TTL refreshes that
+     * find the same content do not call it, so derived data is rebuilt once
+     * per change, not once per TTL. Requests may see the new version shortly
+     * before the listener is done.
+     */
+    void onPublish(Consumer<CachedResponse> listener) {
+        onPublish = listener;
+    }
+
+    long ttlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    long staleHits() {
+        return staleHits.get();
+    }
+
+    long refreshes() {
+        return refreshes.get();
+    }
+
+    long reloads() {
+        return reloads.get();
+    }
+
+    long failedReloads() {
+        return failedReloads.get();
+    }
+
+    long lastReloadNanos() {
+        return lastReloadNanos.get();
+    }
+
+    /**
+     * One TTL refresh: reload() off the request path. A failure keeps the
+     * stale version and waits out another TTL before the next try, so a
+     * missing file is not re-read on every request.
+     */
+    private void refresh() {
+        try {
+            if (reload("TTL refresh", false)) {
+                refreshes.incrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            loadedAt = System.nanoTime();
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Starts the watcher thread. WatchService watches directories, so this
+     * watches the file's directory and filters by name.
+     */
+    void startWatching() throws IOException {
+        watcher = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        Thread thread = new Thread(this::watch, "cache-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stopWatching() {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watcher.close(); // Ends the watcher thread's take()
+        } catch (IOException ex) {
+            System.err.println("Error closing file watcher: " + ex.getMessage());
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = concernsFile(key);
+                if (!key.reset()) {
+                    System.err.println("Stopped watching " + file.getParent() + " (directory is gone)");
+                    return;
+                }
+                if (changed) {
+                    settle();
+                    reload("file event", true);
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            // Closed by stopWatching() - normal termination
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean concernsFile(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // OVERFLOW means events were lost - one of them may have been ours
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Waits until the directory has been quiet for the settle period, so a
+     * writer's truncate + write + close becomes one reload.
+     */
+    private void settle() throws InterruptedException {
+        WatchKey key;
+        while ((key = watcher.poll(settleMillis, TimeUnit.MILLISECONDS)) != null) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    /**
+     * The one reload routine, for file events and TTL refreshes alike.
+     * Builds the new version completely, then publishes it with one volatile
+     * write. The file must look the same before and after the load, or the
+     * load is discarded and repeated. Reloads are serialized, so an older
+     * read can never overwrite a newer one. A version with the same ETag is
+     * not published again - it only counts as revalidated. Returns whether
+     * the file was read successfully.
+     */
+    private boolean reload(String trigger, boolean onWatcher) throws InterruptedException {
+        reloadLock.lock();
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                long start = System.nanoTime();
+                try {
+                    FileTime modified = Files.getLastModifiedTime(file);
+                    long size = Files.size(file);
+                    CachedResponse next = CachedResponse.load(contentType, file, source);
+                    if (!modified.equals(Files.getLastModifiedTime(file)) || size != Files.size(file)) {
+                        // Written to while we read it - the bytes may be torn
+                        if (onWatcher) {
+                            settle();
+                        } else {
+                            Thread.sleep(settleMillis);
+                        }
+                        continue;
+                    }
+                    CachedResponse previous = current;
+                    long nanos = System.nanoTime() - start;
+                    if (next.etag().equals(previous.etag())) {
+                        loadedAt = System.nanoTime();
+                        return true;
+                    }
+                    current = next;
+                    loadedAt = System.nanoTime();
+                    onPublish.accept(next);
+                    reloads.incrementAndGet();
+                    lastReloadNanos.set(nanos);
+                    System.out.printf("Reloaded %s (%s) in %.1f ms: %,d bytes, ETag %s -> %s%n",
+                            file.getFileName(), trigger, nanos / 1e6, next.bodyLength(),
+                            previous.etag(), next.etag());
+                    return true;
+                } catch (IOException | RuntimeException ex) {
+                    failedReloads.incrementAndGet();
+                    System.err.println("Reload of " + file + " (" + trigger + ") failed, still serving ETag "
+                            + current.etag() + ": " + ex.getMessage());
+                    return false;
+                }
+            }
+            failedReloads.incrementAndGet();
+            System.err.println("Reload of " + file + " (" + trigger + ") skipped, file kept changing; "
+                    + "still serving ETag " + current.etag());
+            return false;
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded cache of CachedResponses over a document root, keyed by
+ * request path - the middle ground between reading the disk on every request
+ * (VirtualThreads-without-caching) and pinning everything in memory.
+ *
+ * Key Points:
+ * 1. Bounded by bytes, not entries - each response is charged its footprint()
+ *    (heads, body, compressed variants, 304s)
+ * 2. Segmented LRU eviction: new files enter a probation segment and move to
+ *    the protected segment (80% of the budget) on their second hit, so a scan
+ *    of one-hit files only ever evicts other probation entries
+ * 3. Hits are a ConcurrentHashMap lookup; the LRU bookkeeping is done under a
+ *    lock taken with tryLock(), so a busy lock drops the promotion instead of
+ *    making the request wait
+ * 4. Files larger than the probation segment are served memory-mapped: the
+ *    page cache holds the body, and the entry keeps only the mapping and
+ *    validators (an ETag from size and mtime, no hash), charged by its heads
+ * 5. Paths that escape the root, directories and missing files get a 404
+ * 6. Optional preload at startup (-Dcache.preload): the root is loaded in
+ *    parallel on the warmup pool, up to the budget, before the port is bound
+ *
+ * Entries are immutable until evicted; the document root is static content.
+ *
+ * Configuration:
+ * -Dcache.root=dir             document root; the cache is off without it
+ * -Dcache.maxBytes=N           total footprint budget (default 64 MB)
+ * -Dcache.compress=true|false  build gzip/deflate variants on a miss (default true)
+ * -Dcache.preload=true|false   fill the cache from the root at startup (default true)
+ */
+final class StaticFileCache {
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final Path root;
+    private final long maxBytes;
+    private final long protectedMaxBytes;
+    private final boolean compress;
+    private final boolean preload;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    // Both segments in LRU order: eldest first. Only touched under policyLock.
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>();
+    private long protectedBytes;
+    private final AtomicLong residentBytes = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong uncacheable = new AtomicLong(0); // Misses on files too large, served mapped
+    private final AtomicLong notFound = new AtomicLong(0);
+
+    private static final class Entry {
+        final String path;
+        final CachedResponse response;
+        final long bytes;
+        boolean isProtected; // Guarded by policyLock
+        boolean resident;    // Guarded by policyLock; false once evicted
+
+        Entry(String path, CachedResponse response) {
+            this(path, response, response.footprint());
+        }
+
+        Entry(String path, CachedResponse response, long bytes) {
+            this.path = path;
+            this.response = response;
+            this.bytes = bytes;
+        }
+    }
+
+    private StaticFileCache(Path root, long maxBytes, boolean compress, boolean preload) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.protectedMaxBytes = (long) (maxBytes * PROTECTED_SHARE);
+        this.compress = compress;
+        this.preload = preload;
+    }
+
+    /**
+     * Builds the cache from -Dcache.* properties, or returns null when no
+     * document root is configured.
+     */
+    static StaticFileCache fromSystemProperties() throws IOException {
+        String root = System.getProperty("cache.root");
+        if (root == null || root.isEmpty()) {
+            return null;
+        }
+        Path path = Paths.get(root).toRealPath();
+        if (!Files.isDirectory(path)) {
+            throw new IOException("cache.root is not a directory: " + path);
+        }
+        long maxBytes = Long.getLong("cache.maxBytes", 64L * 1024 * 1024);
+        boolean compress = Boolean.parseBoolean(System.getProperty("cache.compress", "true"));
+        boolean preload = Boolean.parseBoolean(System.getProperty("cache.preload", "true"));
+        return new StaticFileCache(path, maxBytes, compress, preload);
+    }
+
+    boolean preloadEnabled() {
+        return preload;
+    }
+
+    /**
+     * Loads files under the root, one warmup task each, until their sizes
+     * fill the budget; files that would be served mapped are skipped.
+     * Everything lands in probation, as on a miss. A file or directory that
+     * cannot be read is reported and skipped - it is loaded on its first
+     * miss, if ever. Returns the files admitted.
+     */
+    int preload(Warmup warmup) throws IOException {
+        Map<Path, Warmup.Step<Entry>> loads = new LinkedHashMap<>();
+        long[] planned = { 0 };
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isSymbolicLink()) {
+                    try {
+                        attributes = Files.readAttributes(file, BasicFileAttributes.class); // Serve the target
+                    } catch (IOException ex) {
+                        return visitFileFailed(file, ex);
+                    }
+                }
+                long size = attributes.size();
+                if (!attributes.isRegularFile() || size > maxBytes - protectedMaxBytes
+                        || planned[0] + size > maxBytes) {
+                    return FileVisitResult.CONTINUE;
+                }
+                planned[0] += size;
+                String key = key(file);
+                loads.put(file, warmup.fork("file", () -> new Entry(key,
+                        CachedResponse.load(contentType(file), file, "heap", compress, warmup))));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                System.err.println("Preload skipped " + file + ": " + ex);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        int admitted = 0;
+        for (Map.Entry<Path, Warmup.Step<Entry>> load : loads.entrySet()) {
+            Entry loaded;
+            try {
+                loaded = load.getValue().join();
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Preload skipped " + load.getKey() + ": " + ex);
+                continue;
+            }
+            if (entries.putIfAbsent(loaded.path, loaded) != null) {
+                continue;
+            }
+            policyLock.lock();
+            try {
+                admit(loaded);
+            } finally {
+                policyLock.unlock();
+            }
+            admitted++;
+        }
+        return admitted;
+    }
+
+    /**
+     * The response for a request path (without query): from memory on a hit,
+     * from disk on a miss, or NOT_FOUND. Entries are keyed by the file's
+     * path under the root, so "/./a.json" and "/x/../a.json" hit "/a.json".
+     */
+    CachedResponse get(String requestPath) throws IOException {
+        Entry entry = entries.get(requestPath);
+        if (entry == null) {
+            // Not a key as sent - resolve it, then look again under its key
+            Path file = resolve(requestPath);
+            if (file == null) {
+                misses.incrementAndGet();
+                notFound.incrementAndGet();
+                return CachedResponse.NOT_FOUND;
+            }
+            String key = key(file);
+            entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return load(key, file);
+            }
+        }
+        hits.incrementAndGet();
+        if (policyLock.tryLock()) {
+            try {
+                onHit(entry);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return entry.response;
+    }
+
+    private CachedResponse load(String key, Path file) throws IOException {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (NoSuchFileException ex) {
+            notFound.incrementAndGet();
+            return CachedResponse.NOT_FOUND;
+        }
+        String contentType = contentType(file);
+        Entry loaded;
+        if (size > maxBytes - protectedMaxBytes) {
+            // Would flush the whole probation segment - let the page cache hold
+            // the body and keep only the mapping, charged by its heads
+            uncacheable.incrementAndGet();
+            CachedResponse mapped = CachedResponse.mappedWithMetadata(contentType, file);
+            loaded = new Entry(key, mapped, mapped.footprint() - mapped.bodyLength());
+        } else {
+            loaded = new Entry(key, CachedResponse.load(contentType, file, "heap", compress));
+        }
+        // Concurrent misses on one file may both load; the first one admitted wins
+        Entry raced = entries.putIfAbsent(key, loaded);
+        if (raced != null) {
+            return raced.response;
+        }
+        policyLock.lock();
+        try {
+            admit(loaded);
+        } finally {
+            policyLock.unlock();
+        }
+        return loaded.response;
+    }
+
+    /**
+     * The cache key of a file under the root: its request path, "/" + relative path.
+     */
+    private String key(Path file) {
+        return "/" + root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Maps a request path onto a regular file under the root, or null.
+     * Percent-encoding is not decoded; such paths simply do not match.
+     */
+    private Path resolve(String requestPath) {
+        if (!requestPath.startsWith("/") || requestPath.indexOf('\0') >= 0 || requestPath.indexOf('\\') >= 0) {
+            return null;
+        }
+        Path file = root.resolve(requestPath.substring(1)).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            return null; // ".." out of the root, a directory, or nothing there
+        }
+        return file;
+    }
+
+    private void onHit(Entry entry) {
+        if (!entry.resident) {
+            return; // Evicted since the lookup
+        }
+        if (entry.isProtected) {
+            protectedSegment.remove(entry.path);
+            protectedSegment.put(entry.path, entry); // Move to the MRU end
+            return;
+        }
+        // Second hit: promote, demoting protected LRU entries back to probation
+        probation.remove(entry.path);
+        entry.isProtected = true;
+        protectedSegment.put(entry.path, entry);
+        protectedBytes += entry.bytes;
+        Iterator<Entry> eldest = protectedSegment.values().iterator();
+        while (protectedBytes > protectedMaxBytes && eldest.hasNext()) {
+            Entry demoted = eldest.next();
+            eldest.remove();
+            demoted.isProtected = false;
+            protectedBytes -= demoted.bytes;
+            probation.put(demoted.path, demoted);
+        }
+    }
+
+    private void admit(Entry entry) {
+        entry.resident = true;
+        probation.put(entry.path, entry);
+        long resident = residentBytes.addAndGet(entry.bytes);
+        // Evict from probation first; protected entries only once probation is empty
+        while (resident > maxBytes) {
+            Map<String, Entry> segment = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Entry> eldest = segment.values().iterator();
+            Entry victim = eldest.next();
+            eldest.remove();
+            if (victim.isProtected) {
+                protectedBytes -= victim.bytes;
+            }
+            victim.resident = false;
+            entries.remove(victim.path, victim);
+            resident = residentBytes.addAndGet(-victim.bytes);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        return switch (extension) {
+            case "json" -> "application/json";
+            case "html", "htm" -> "text/html; charset=utf-8";
+            case "txt" -> "text/plain; charset=utf-8";
+            case "css" -> "text/css";
+            case "js" -> "text/javascript";
+            case "svg" -> "image/svg+xml";
+            case "png" -> "image/png";
+            case "jpg", "jpeg" -> "image/jpeg";
+            default -> "application/octet-stream";
+        };
+    }
+
+    void printStats() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        System.out.printf("  File cache: %,d hits, %,d misses (%.1f%% hit rate), %,d evictions%n",
+                hitCount, misses.get(), 100.0 * hitCount / Math.max(1, total), evictions.get());
+        System.out.printf("  File cache resident: %,d entries, %,d / %,d bytes (%,d not found, %,d too large - mapped)%n",
+                entries.size(), residentBytes.get(), maxBytes, notFound.get(), uncacheable.get());
+    }
+
+    @Override
+    public String toString() {
+        return root + ", " + maxBytes + " bytes, segmented LRU (" + (int) (PROTECTED_SHARE * 100) + "% protected)"
+                + (compress ? ", gzip/deflate" : ", identity only")
+                + (preload ? ", preloaded " + entries.size() + " files (" + residentBytes.get() + " bytes)" : "");
+    }
+}
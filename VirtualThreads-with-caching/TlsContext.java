@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * TLS termination settings and handshake metrics shared by every
+ * connection of a server.
+ *
+ * Key Features:
+ * 1. One SSLContext per server - engines are cheap, contexts are not
+ * 2. Bounded server session cache (size + timeout) for ID-based resumption
+ * 3. Stateless session tickets (RFC 5077 / TLS 1.3 PSK), so resumption works
+ *    without the server remembering anything per client
+ * 4. ALPN - h2 and http/1.1 in server preference order
+ * 5. Full vs resumed handshakes are counted, so the resumption rate shows
+ *    whether clients actually skip the expensive key exchange
+ *
+ * Configuration:
+ * -Dtls.keystore=path                PKCS12 keystore with the server key; TLS is off without it
+ * -Dtls.keystorePassword=secret      keystore and key password (default changeit)
+ * -Dtls.sessionCacheSize=N           sessions kept for ID-based resumption (default 10000, 0 = unbounded)
+ * -Dtls.sessionTimeoutSeconds=N      lifetime of cached sessions and tickets (default 3600)
+ * -Dtls.sessionTickets=true|false    issue stateless session tickets (default true)
+ * -Dtls.alpn=h2,http/1.1             protocols offered through ALPN, in preference order
+ */
+final class TlsContext {
+    static final String H2 = "h2";
+
+    private final SSLContext sslContext;
+    private final String[] applicationProtocols;
+    private final int sessionCacheSize;
+    private final int sessionTimeoutSeconds;
+    private final boolean sessionTickets;
+    private final AtomicLong fullHandshakes = new AtomicLong(0);
+    private final AtomicLong resumedHandshakes = new AtomicLong(0);
+    private final AtomicLong failedHandshakes = new AtomicLong(0);
+    private final AtomicLong handshakeNanos = new AtomicLong(0);
+    private final AtomicLong fullHandshakeNanos = new AtomicLong(0);
+    private final AtomicLong alpnH2 = new AtomicLong(0);
+    private final AtomicLong alpnHttp11 = new AtomicLong(0);
+
+    private TlsContext(SSLContext sslContext, String[] applicationProtocols, int sessionCacheSize,
+            int sessionTimeoutSeconds, boolean sessionTickets) {
+        this.sslContext = sslContext;
+        this.applicationProtocols = applicationProtocols;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+        this.sessionTickets = sessionTickets;
+    }
+
+    /**
+     * Builds the context from -Dtls.* properties, or returns null when no
+     * keystore is configured (plain HTTP).
+     */
+    static TlsContext fromSystemProperties() throws IOException {
+        String keystore = System.getProperty("tls.keystore");
+        if (keystore == null || keystore.isEmpty()) {
+            return null;
+        }
+        char[] password = System.getProperty("tls.keystorePassword", "changeit").toCharArray();
+        int cacheSize = Integer.getInteger("tls.sessionCacheSize", 10000);
+        int timeoutSeconds = Integer.getInteger("tls.sessionTimeoutSeconds", 3600);
+        boolean tickets = Boolean.parseBoolean(System.getProperty("tls.sessionTickets", "true"));
+        String[] protocols = System.getProperty("tls.alpn", H2 + ",http/1.1").split(",");
+
+        // Read once by the JSSE provider, so it must be set before the first context exists
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", String.valueOf(tickets));
+
+        Path path = Paths.get(keystore);
+        try (InputStream in = Files.newInputStream(path)) {
+            KeyStore store = KeyStore.getInstance("PKCS12");
+            store.load(in, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(store, password);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(cacheSize);
+            sessions.setSessionTimeout(timeoutSeconds);
+            return new TlsContext(context, protocols, cacheSize, timeoutSeconds, tickets);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Cannot load TLS keystore " + path + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Starts the server side of a TLS connection on an accepted channel.
+     */
+    TlsSession newSession(SocketChannel channel) {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setApplicationProtocols(applicationProtocols);
+        parameters.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(parameters);
+        return new TlsSession(channel, engine, this);
+    }
+
+    void handshakeCompleted(TlsSession session) {
+        handshakeNanos.addAndGet(session.handshakeNanos());
+        if (session.resumed()) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+            fullHandshakeNanos.addAndGet(session.handshakeNanos());
+        }
+        if (H2.equals(session.applicationProtocol())) {
+            alpnH2.incrementAndGet();
+        } else {
+            alpnHttp11.incrementAndGet(); // "http/1.1" or no ALPN at all
+        }
+    }
+
+    void handshakeFailed() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    void printStats() {
+        long full = fullHandshakes.get();
+        long resumed = resumedHandshakes.get();
+        long total = full + resumed;
+        System.out.println("  TLS handshakes: " + total + " (" + full + " full, " + resumed + " resumed, "
+                + failedHandshakes.get() + " failed)");
+        System.out.printf("  TLS resumption rate: %.1f%%%n", 100.0 * resumed / Math.max(1, total));
+        System.out.printf("  Avg handshake time: %.0f us (full: %.0f us)%n",
+                handshakeNanos.get() / 1000.0 / Math.max(1, total),
+                fullHandshakeNanos.get() / 1000.0 / Math.max(1, full));
+        System.out.println("  ALPN: " + alpnH2.get() + " h2, " + alpnHttp11.get() + " http/1.1");
+    }
+
+    @Override
+    public String toString() {
+        return "ALPN " + String.join(",", applicationProtocols)
+                + ", session cache " + (sessionCacheSize == 0 ? "unbounded" : sessionCacheSize)
+                + " x " + sessionTimeoutSeconds + "s"
+                + ", tickets " + (sessionTickets ? "on" : "off");
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * One TLS connection: an SSLEngine plus the ciphertext buffers around it.
+ *
+ * Works on a non-blocking channel (the reactor drives handshake(), read()
+ * and write() from selector events and retries on OP_READ / OP_WRITE) and,
+ * after blocking(), on a blocking one - that is how an ALPN h2 connection
+ * is handed to Http2Connection, which sees this class as its channel and
+ * inputStream() as its input.
+ *
+ * Delegated handshake tasks (certificate signing, key agreement) run on the
+ * calling thread; they are short next to a round trip and keep the engine
+ * single-threaded.
+ */
+final class TlsSession implements GatheringByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final TlsContext context;
+    private final ByteBuffer netIn;  // Ciphertext read but not yet unwrapped
+    private final ByteBuffer netOut; // Ciphertext wrapped but not yet written
+    private final ByteBuffer appIn;  // Plaintext unwrapped but not yet handed out
+    private ReadableByteChannel source;
+    private boolean handshaking = true;
+    private long handshakeStart;      // nanoTime of the first handshake byte
+    private long handshakeStartMillis;
+    private long handshakeNanos;
+    private boolean resumed;
+    private boolean inboundClosed;
+
+    TlsSession(SocketChannel channel, SSLEngine engine, TlsContext context) {
+        this.channel = channel;
+        this.engine = engine;
+        this.context = context;
+        this.source = channel;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocate(packetSize);
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    boolean handshaking() {
+        return handshaking;
+    }
+
+    boolean resumed() {
+        return resumed;
+    }
+
+    long handshakeNanos() {
+        return handshakeNanos;
+    }
+
+    /**
+     * The protocol chosen through ALPN, or "" if the client offered none.
+     */
+    String applicationProtocol() {
+        String protocol = engine.getApplicationProtocol();
+        return protocol == null ? "" : protocol;
+    }
+
+    /**
+     * Advances the handshake as far as the socket allows. Returns true once
+     * it is complete; false means wait for OP_WRITE if wantsWrite(), else
+     * for OP_READ.
+     */
+    boolean handshake() throws IOException {
+        try {
+            if (handshakeStart == 0) {
+                handshakeStart = System.nanoTime();
+                handshakeStartMillis = System.currentTimeMillis();
+                engine.beginHandshake();
+            }
+            while (true) {
+                if (!flush()) {
+                    return false; // Socket send buffer is full
+                }
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK -> runDelegatedTasks();
+                    case NEED_WRAP -> checkClosed(engine.wrap(EMPTY, netOut));
+                    case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                        netIn.flip();
+                        SSLEngineResult result = engine.unwrap(netIn, appIn);
+                        netIn.compact();
+                        checkClosed(result);
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            int n = source.read(netIn);
+                            if (n < 0) {
+                                throw new EOFException("Client closed the connection during the TLS handshake");
+                            }
+                            if (n == 0) {
+                                return false; // Wait for the next flight
+                            }
+                        }
+                    }
+                    default -> {
+                        finishHandshake();
+                        return true;
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            context.handshakeFailed();
+            throw ex;
+        }
+    }
+
+    boolean wantsWrite() {
+        return netOut.position() > 0;
+    }
+
+    /**
+     * True if plaintext or whole records are already buffered, so read()
+     * has something to return without a readiness event.
+     */
+    boolean hasBufferedInput() {
+        return appIn.position() > 0 || netIn.position() > 0;
+    }
+
+    /**
+     * Reads application data into dst. Returns the bytes added, 0 if a
+     * non-blocking socket has no complete record yet, or -1 at end of stream.
+     */
+    int read(ByteBuffer dst) throws IOException {
+        if (appIn.position() == 0) {
+            unwrap(); // Records left from the last socket read
+            if (appIn.position() == 0 && !inboundClosed) {
+                if (source.read(netIn) < 0) {
+                    return -1;
+                }
+                unwrap();
+            }
+        }
+        if (appIn.position() == 0) {
+            return inboundClosed ? -1 : 0;
+        }
+        appIn.flip();
+        int n = Math.min(appIn.remaining(), dst.remaining());
+        dst.put(appIn.slice(appIn.position(), n));
+        appIn.position(appIn.position() + n);
+        appIn.compact();
+        return n;
+    }
+
+    private void unwrap() throws IOException {
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining() && !inboundClosed) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    inboundClosed = true; // close_notify
+                } else if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    break; // Partial record, or appIn is full until the caller drains it
+                }
+                // Post-handshake messages (TLS 1.3 KeyUpdate) may need an answer
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    engine.wrap(EMPTY, netOut);
+                    flush();
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    /**
+     * Encrypts and sends as much of srcs as the socket takes. Ciphertext the
+     * socket refused stays queued; callers check wantsWrite() or flush().
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long consumed = 0;
+        while (flush() && remaining(srcs, offset, length)) {
+            SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+            checkClosed(result);
+            consumed += result.bytesConsumed();
+        }
+        return consumed;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] {src}, 0, 1);
+    }
+
+    /**
+     * Writes queued ciphertext. Returns true when nothing is left queued.
+     */
+    boolean flush() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        try {
+            channel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+
+    /**
+     * Switches to blocking I/O on the calling thread. Reads honor
+     * idleTimeoutMillis (SocketTimeoutException), like OptimizedServer's sockets.
+     */
+    void blocking(int idleTimeoutMillis) throws IOException {
+        channel.configureBlocking(true);
+        channel.socket().setSoTimeout(idleTimeoutMillis);
+        source = Channels.newChannel(channel.socket().getInputStream());
+    }
+
+    /**
+     * Plaintext input for blocking callers; blocks until at least one byte
+     * of application data arrives.
+     */
+    InputStream inputStream() {
+        return new InputStream() {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n;
+                do {
+                    n = TlsSession.this.read(ByteBuffer.wrap(b, off, len));
+                } while (n == 0 && len > 0);
+                return n;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+        };
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Sends close_notify if the socket takes it right away, then closes.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            while (!engine.isOutboundDone() && flush()) {
+                engine.wrap(EMPTY, netOut);
+            }
+            flush();
+        } catch (IOException ex) {
+            // Peer is already gone - nothing more to tell it
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void finishHandshake() {
+        handshaking = false;
+        handshakeNanos = System.nanoTime() - handshakeStart;
+        // A resumed session keeps the creation time of the handshake that made it
+        resumed = engine.getSession().getCreationTime() < handshakeStartMillis;
+        context.handshakeCompleted(this);
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static void checkClosed(SSLEngineResult result) throws SSLException {
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS engine closed");
+        }
+    }
+
+    private static boolean remaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loopback TCP vs Unix Domain Socket Benchmark
+ * Compares latency and throughput of OptimizedServer's cached payload over
+ * port 8010 and over its Unix domain socket (-Dserver.unixSocket).
+ *
+ * Method:
+ * 1. Same client code for both transports - a blocking SocketChannel per
+ *    connection, keep-alive, one request in flight (closed loop)
+ * 2. A warmup run per transport is discarded, then a fixed-length measured run
+ * 3. Every request's latency goes into a 1 us histogram (p50/p90/p99/p99.9/max)
+ * 4. Throughput as requests/s and MB/s of response bytes (headers + body)
+ * 5. Connections the server closes (Connection: close) are reopened, on both sides alike
+ *
+ * Usage (server started with the same -Dserver.unixSocket):
+ *   java -Dserver.unixSocket=/tmp/optimized-server.sock UdsBenchmark
+ *
+ * Configuration:
+ * -Dserver.unixSocket=path      socket to test (default /tmp/optimized-server.sock)
+ * -Dbench.port=N                TCP port on 127.0.0.1 (default 8010)
+ * -Dbench.connections=N         concurrent connections per run (default 16)
+ * -Dbench.seconds=N             measured run length (default 10)
+ * -Dbench.warmupSeconds=N       discarded run before each measured one (default 2)
+ * -Dbench.acceptEncoding=gzip   Accept-Encoding to send (default none - the identity body)
+ */
+public class UdsBenchmark {
+    private static final int MAX_LATENCY_MICROS = 100_000; // Slower requests only count toward max
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Latency histogram of one client thread; merged after the run.
+     */
+    private static final class Histogram {
+        final long[] counts = new long[MAX_LATENCY_MICROS + 1];
+        long requests;
+        long bytes;
+        long maxNanos;
+        long reconnects;
+
+        void record(long nanos, long responseBytes) {
+            counts[(int) Math.min(nanos / 1000, MAX_LATENCY_MICROS)]++;
+            maxNanos = Math.max(maxNanos, nanos);
+            requests++;
+            bytes += responseBytes;
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            requests += other.requests;
+            bytes += other.bytes;
+            maxNanos = Math.max(maxNanos, other.maxNanos);
+            reconnects += other.reconnects;
+        }
+
+        long percentileMicros(double percentile) {
+            long rank = (long) Math.ceil(requests * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i;
+                }
+            }
+            return MAX_LATENCY_MICROS;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.getInteger("bench.port", 8010);
+        String unixSocket = System.getProperty("server.unixSocket", "/tmp/optimized-server.sock");
+        int connections = Integer.getInteger("bench.connections", 16);
+        int seconds = Integer.getInteger("bench.seconds", 10);
+        int warmupSeconds = Integer.getInteger("bench.warmupSeconds", 2);
+        String acceptEncoding = System.getProperty("bench.acceptEncoding", "");
+
+        String request = "GET / HTTP/1.1\r\nHost: localhost\r\n"
+                + (acceptEncoding.isEmpty() ? "" : "Accept-Encoding: " + acceptEncoding + "\r\n")
+                + "\r\n";
+        byte[] requestBytes = request.getBytes(StandardCharsets.US_ASCII);
+        SocketAddress tcp = new InetSocketAddress("127.0.0.1", port);
+        SocketAddress uds = UnixDomainSocketAddress.of(unixSocket);
+
+        System.out.println("Loopback TCP vs Unix domain socket");
+        System.out.println("TCP: " + tcp + " | UDS: " + unixSocket);
+        System.out.println("Connections: " + connections + " | Run: " + seconds + " s (+" + warmupSeconds
+                + " s warmup) | Accept-Encoding: " + (acceptEncoding.isEmpty() ? "identity" : acceptEncoding));
+        System.out.println();
+
+        Histogram tcpResult = measure("loopback TCP", tcp, requestBytes, connections, seconds, warmupSeconds);
+        Histogram udsResult = measure("unix socket", uds, requestBytes, connections, seconds, warmupSeconds);
+
+        System.out.printf("%-13s %10s %10s %9s %8s %8s %8s %9s %8s%n",
+                "Transport", "Requests", "Req/s", "MB/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        print("loopback TCP", tcpResult, seconds);
+        print("unix socket", udsResult, seconds);
+        System.out.println();
+        System.out.printf("UDS vs TCP: %.2fx throughput, p50 %+.1f%%, p99 %+.1f%%%n",
+                udsResult.requests / (double) Math.max(1, tcpResult.requests),
+                change(tcpResult.percentileMicros(50), udsResult.percentileMicros(50)),
+                change(tcpResult.percentileMicros(99), udsResult.percentileMicros(99)));
+    }
+
+    private static Histogram measure(String label, SocketAddress address, byte[] request, int connections,
+            int seconds, int warmupSeconds) throws InterruptedException {
+        System.out.println("Running " + label + "...");
+        if (warmupSeconds > 0) {
+            run(address, request, connections, warmupSeconds);
+        }
+        return run(address, request, connections, seconds);
+    }
+
+    /**
+     * One closed-loop run: every connection sends its next request as soon
+     * as the previous response is complete.
+     */
+    private static Histogram run(SocketAddress address, byte[] request, int connections, int seconds)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        Histogram[] histograms = new Histogram[connections];
+        Thread[] clients = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            Histogram histogram = histograms[i] = new Histogram();
+            clients[i] = new Thread(() -> client(address, request, running, histogram), "bench-client-" + i);
+            clients[i].start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+
+        Histogram total = new Histogram();
+        for (int i = 0; i < connections; i++) {
+            clients[i].join();
+            total.add(histograms[i]);
+        }
+        return total;
+    }
+
+    private static void client(SocketAddress address, byte[] request, AtomicBoolean running, Histogram histogram) {
+        ByteBuffer requestBuffer = ByteBuffer.wrap(request);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        SocketChannel channel = null;
+        try {
+            while (running.get()) {
+                if (channel == null) {
+                    channel = open(address);
+                }
+                long start = System.nanoTime();
+                long responseBytes = exchange(channel, requestBuffer, buffer);
+                histogram.record(System.nanoTime() - start, Math.abs(responseBytes));
+                if (responseBytes < 0) {
+                    // Server ends the connection (max requests per connection) - reopen outside the timing
+                    channel.close();
+                    channel = null;
+                    histogram.reconnects++;
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println(Thread.currentThread().getName() + " stopped: " + ex.getMessage());
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Benchmark is over for this connection
+                }
+            }
+        }
+    }
+
+    private static SocketChannel open(SocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // Unix sockets have no Nagle
+        }
+        return channel;
+    }
+
+    /**
+     * Sends one request and reads its response. Returns the response size,
+     * negated if the server closes the connection after it.
+     */
+    private static long exchange(SocketChannel channel, ByteBuffer request, ByteBuffer buffer) throws IOException {
+        request.rewind();
+        while (request.hasRemaining()) {
+            channel.write(request);
+        }
+
+        buffer.clear();
+        int headerEnd = -1;
+        while (headerEnd < 0) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Server closed the connection mid-response");
+            }
+            headerEnd = headerEnd(buffer);
+            if (headerEnd < 0 && !buffer.hasRemaining()) {
+                throw new IOException("Response head larger than " + BUFFER_SIZE + " bytes");
+            }
+        }
+        String head = new String(buffer.array(), 0, headerEnd, StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT);
+        long contentLength = headerLong(head, "content-length:");
+        long total = headerEnd + contentLength;
+        long remaining = total - buffer.position();
+        while (remaining > 0) {
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n < 0) {
+                throw new EOFException("Server closed the connection mid-body");
+            }
+            remaining -= n;
+        }
+        return head.contains("\r\nconnection: close") ? -total : total;
+    }
+
+    /**
+     * Offset just past the blank line ending the head, or -1 if not read yet.
+     */
+    private static int headerEnd(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        for (int i = 3; i < buffer.position(); i++) {
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static long headerLong(String head, String name) throws IOException {
+        int at = head.indexOf("\r\n" + name);
+        if (at < 0) {
+            throw new IOException("Response has no " + name + " header");
+        }
+        int start = at + 2 + name.length();
+        int end = head.indexOf("\r\n", start);
+        return Long.parseLong(head.substring(start, end < 0 ? head.length() : end).trim());
+    }
+
+    private static void print(String label, Histogram result, int seconds) {
+        System.out.printf("%-13s %,10d %,10.0f %9.1f %8d %8d %8d %9d %8d%n",
+                label, result.requests, result.requests / (double) seconds,
+                result.bytes / 1e6 / seconds,
+                result.percentileMicros(50), result.percentileMicros(90), result.percentileMicros(99),
+                result.percentileMicros(99.9), result.maxNanos / 1000);
+    }
+
+    private static double change(long before, long after) {
+        return before == 0 ? 0 : 100.0 * (after - before) / before;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * io_uring Server
+ * Serves the same cached data.json payload as ReactorServer, but drives the
+ * sockets through an io_uring submission/completion ring instead of a Selector.
+ * GET /entries/{id} answers single records of it (EntryIndex).
+ *
+ * Key Differences:
+ * 1. Completion based - accept, recv and writev are submitted, not polled for readiness
+ * 2. Batched syscalls - every SQE queued while handling a batch of completions
+ *    goes to the kernel in one io_uring_enter call
+ * 3. No JNI and no native library - IoUring calls the kernel through java.lang.foreign
+ * 4. Zero copy from the cache - writev iovecs point straight at the pre-encoded direct buffers
+ *
+ * Requirements: Linux 5.7+, JDK 21 run with
+ *   --enable-preview --enable-native-access=ALL-UNNAMED
+ * (java.lang.foreign is a preview API in JDK 21). When io_uring cannot be
+ * used - older kernel, io_uring disabled by sysctl or seccomp, or the JVM
+ * started without --enable-preview - the server falls back to the NIO
+ * reactor (ReactorServer) on the same port.
+ *
+ * Configuration:
+ * -During.entries=N   submission queue size (default 4096)
+ * -Dpayload.source    heap|mmap|arena, same as OptimizedServer
+ * -Dhttp.*            see KeepAlivePolicy
+ */
+public class UringServer {
+    private final CachedResponse cachedResponse;
+    private final EntryIndex entryIndex;
+    private final AtomicLong totalConnections = new AtomicLong(0);
+    private final AtomicLong totalRequests = new AtomicLong(0);
+    private final AtomicLong totalWrites = new AtomicLong(0);
+    private final AtomicLong enterCalls = new AtomicLong(0);
+    private final AtomicLong submittedEntries = new AtomicLong(0);
+    private UringTransport transport;
+
+    public UringServer(String payloadSource) throws IOException {
+        // Cache the complete HTTP response (status line + headers + body) as bytes
+        this.cachedResponse = CachedResponse.load("application/json", Paths.get("../data.json"), payloadSource);
+        System.out.println("HTTP response pre-encoded (" + payloadSource + ", " + cachedResponse.totalLength() + " bytes)");
+        this.entryIndex = EntryIndex.orEmpty(cachedResponse);
+        System.out.println("Entry index: " + entryIndex);
+    }
+
+    /**
+     * Returns a fresh view of the pre-encoded response in the encoding the
+     * request accepts (or its 304 / 206); the shared bytes are never copied.
+     */
+    ByteBuffer[] cachedResponse(HttpRequestParser request, boolean keepAlive) {
+        CachedResponse entry = entryIndex.lookup(request); // GET /entries/{id}
+        return (entry != null ? entry : cachedResponse).respond(request, null, keepAlive);
+    }
+
+    void enterCalled(int submitted) {
+        enterCalls.incrementAndGet();
+        submittedEntries.addAndGet(submitted);
+    }
+
+    void writeIssued() {
+        totalWrites.incrementAndGet();
+    }
+
+    void connectionAccepted() {
+        totalConnections.incrementAndGet();
+    }
+
+    void requestCompleted() {
+        long reqId = totalRequests.incrementAndGet();
+
+        // Log every 1000 requests
+        if (reqId % 1000 == 0) {
+            System.out.printf("Processed %,d requests | Active: %,d | SQEs per enter: %.2f%n",
+                    reqId, transport.connectionCount(), sqesPerEnter());
+        }
+    }
+
+    private double sqesPerEnter() {
+        return submittedEntries.get() / (double) Math.max(1, enterCalls.get());
+    }
+
+    public static void main(String[] args) {
+        int port = 8050; // Runs next to ReactorServer (8030) and AsyncServer (8040)
+        int backlog = 10000; // Same backlog as OptimizedServer for fair comparison
+        int entries = Integer.getInteger("uring.entries", 4096);
+        String payloadSource = CachedResponse.availableSource(System.getProperty("payload.source", "heap"));
+        KeepAlivePolicy keepAlive = KeepAlivePolicy.fromSystemProperties();
+
+        UringServer server;
+        try {
+            server = new UringServer(payloadSource);
+            server.transport = new UringTransport(server, keepAlive, port, backlog, entries);
+        } catch (IOException | UnsupportedOperationException | LinkageError ex) {
+            // LinkageError: no --enable-preview (or JDK < 21), so java.lang.foreign cannot load
+            System.out.println("io_uring unavailable (" + ex + ")");
+            System.out.println("Falling back to the NIO reactor...\n");
+            ReactorServer.serve(port);
+            return;
+        }
+
+        System.out.println("io_uring server listening on port: " + port);
+        System.out.println("Connection backlog: " + backlog);
+        System.out.println("Ring: " + server.transport.ringEntries() + " SQ entries, 1 event loop thread");
+        System.out.println("Keep-alive: " + keepAlive);
+        System.out.println("\nPress Ctrl+C to shutdown gracefully...\n");
+
+        // Add shutdown hook for graceful termination
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("\n\nShutdown signal received...");
+            System.out.println("Stopping event loop and closing the ring...");
+            try {
+                server.transport.shutdown();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Final stats:");
+            System.out.println("  Total requests processed: " + server.totalRequests.get());
+            System.out.println("  Total connections accepted: " + server.totalConnections.get());
+            System.out.printf("  Requests per connection: %.2f%n",
+                    server.totalRequests.get() / (double) Math.max(1, server.totalConnections.get()));
+            System.out.printf("  Responses per write batch: %.2f%n",
+                    server.totalRequests.get() / (double) Math.max(1, server.totalWrites.get()));
+            System.out.println("  io_uring_enter calls: " + server.enterCalls.get());
+            System.out.printf("  SQEs per io_uring_enter: %.2f%n", server.sqesPerEnter());
+        }));
+
+        server.transport.run();
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * io_uring event loop for UringServer.
+ *
+ * The same request handling as EventLoop, but completion based: accept,
+ * recv and writev are submitted to the ring and every SQE queued while
+ * handling one batch of completions goes to the kernel in a single
+ * io_uring_enter call.
+ *
+ * Responses are written straight from CachedResponse's direct buffers -
+ * the iovecs point at their native addresses, so nothing is copied. The
+ * few heap buffers (per-request range heads) are copied to direct memory.
+ *
+ * user_data carries the connection slot and the operation: slot << 8 | op.
+ * Each connection has at most one operation in flight.
+ */
+final class UringTransport implements Runnable {
+    private static final int OP_ACCEPT = 1;
+    private static final int OP_RECV = 2;
+    private static final int OP_WRITE = 3;
+    private static final int OP_CLOSE = 4;
+    private static final int OP_TICK = 5;
+
+    private static final int ACCEPT_DEPTH = 16;   // Accepts kept in flight on the listener
+    private static final int MAX_IOVECS = 1024;   // IOV_MAX
+    private static final int READ_BUFFER_SIZE = HttpRequestParser.MAX_HEADER_BYTES;
+    private static final long TICK_SECONDS = 1;   // Idle sweep and shutdown check interval
+
+    private final IoUring ring;
+    private final UringServer server;
+    private final KeepAlivePolicy keepAlive;
+    private final int listenFd;
+    private final MemorySegment tick;
+    private final List<Connection> slots = new ArrayList<>();
+    private final ArrayDeque<Connection> freeSlots = new ArrayDeque<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+    private int connections;
+
+    /**
+     * Per-connection state. Slots are pooled, so the native read buffer and
+     * iovec array are allocated once and reused by later connections.
+     */
+    private final class Connection {
+        final int slot;
+        final MemorySegment readSegment = ring.allocate(READ_BUFFER_SIZE);
+        final ByteBuffer readBuffer = readSegment.asByteBuffer();
+        final MemorySegment iovecs = ring.allocate((long) MAX_IOVECS * IoUring.IOVEC_SIZE);
+        final HttpRequestParser parser = new HttpRequestParser(READ_BUFFER_SIZE);
+        final List<ByteBuffer> batch = new ArrayList<>();
+        int fd = -1;
+        int requestStart; // Offset of the first unanswered request
+        int served;       // Responses sent on this connection
+        boolean keepOpen;
+        boolean reading;  // A recv is in flight - the idle sweep may interrupt it
+        long lastActive;
+        ByteBuffer[] pendingWrite;
+        int writeIndex;   // First buffer of pendingWrite with bytes left
+
+        Connection(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    UringTransport(UringServer server, KeepAlivePolicy keepAlive, int port, int backlog, int entries)
+            throws IOException {
+        this.server = server;
+        this.keepAlive = keepAlive;
+        this.ring = new IoUring(entries);
+        try {
+            this.listenFd = ring.listen(port, backlog);
+        } catch (IOException ex) {
+            ring.close();
+            throw ex;
+        }
+        this.tick = ring.allocate(16); // struct __kernel_timespec {tv_sec, tv_nsec}
+        tick.set(ValueLayout.JAVA_LONG, 0, TICK_SECONDS);
+    }
+
+    int ringEntries() {
+        return ring.entries();
+    }
+
+    int connectionCount() {
+        return connections;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < ACCEPT_DEPTH; i++) {
+                ring.prepAccept(listenFd, OP_ACCEPT);
+            }
+            ring.prepTimeout(tick, OP_TICK);
+
+            while (running) {
+                server.enterCalled(ring.submitAndWait());
+                ring.drainCompletions(this::complete);
+            }
+        } finally {
+            for (Connection connection : slots) {
+                if (connection.fd >= 0) {
+                    ring.close(connection.fd);
+                }
+            }
+            ring.close(listenFd);
+            ring.close();
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Called from the shutdown hook; the loop notices on its next tick.
+     */
+    void shutdown() throws InterruptedException {
+        running = false;
+        stopped.await();
+    }
+
+    private void complete(long userData, int result) {
+        int op = (int) (userData & 0xFF);
+        switch (op) {
+            case OP_ACCEPT -> onAccept(result);
+            case OP_RECV -> onRecv(slots.get((int) (userData >>> 8)), result);
+            case OP_WRITE -> onWrite(slots.get((int) (userData >>> 8)), result);
+            case OP_TICK -> onTick();
+            default -> { } // OP_CLOSE - the slot was released when the close was queued
+        }
+    }
+
+    private void onAccept(int fd) {
+        if (running) {
+            ring.prepAccept(listenFd, OP_ACCEPT); // Keep ACCEPT_DEPTH accepts in flight
+        }
+        if (fd < 0) {
+            // Accept failures (e.g. fd exhaustion) must not stop the listener
+            System.err.println("Error accepting connection: errno " + -fd);
+            return;
+        }
+        Connection connection = freeSlots.poll();
+        if (connection == null) {
+            connection = new Connection(slots.size());
+            slots.add(connection);
+        }
+        ring.setNoDelay(fd);
+        connection.fd = fd;
+        connection.requestStart = 0;
+        connection.served = 0;
+        connection.keepOpen = true;
+        connection.readBuffer.clear();
+        connection.parser.reset();
+        connections++;
+        server.connectionAccepted();
+        recv(connection);
+    }
+
+    private void onRecv(Connection connection, int n) {
+        connection.reading = false;
+        if (n <= 0) {
+            close(connection); // EOF, error, or shut down by the idle sweep
+            return;
+        }
+        connection.readBuffer.position(connection.readBuffer.position() + n);
+        connection.lastActive = System.currentTimeMillis();
+        serveRequests(connection);
+    }
+
+    /**
+     * Answers every complete request in the read buffer with one writev.
+     */
+    private void serveRequests(Connection connection) {
+        ByteBuffer readBuffer = connection.readBuffer;
+        HttpRequestParser parser = connection.parser;
+
+        // 1. Parse Request Headers (HTTP Compliance) - queue a response per complete request
+        while (connection.keepOpen) {
+            HttpRequestParser.Result result = parser.parse(readBuffer, connection.requestStart, readBuffer.position());
+            if (result == HttpRequestParser.Result.INCOMPLETE) {
+                if (connection.requestStart > 0 || readBuffer.hasRemaining()) {
+                    break; // Wait for the rest of the request
+                }
+                result = HttpRequestParser.Result.TOO_LARGE; // Head fills the whole buffer
+            }
+            if (result == HttpRequestParser.Result.COMPLETE) {
+                connection.served++;
+                connection.keepOpen = keepAlive.keepOpen(connection.served, parser.canReuseConnection());
+                Collections.addAll(connection.batch, server.cachedResponse(parser, connection.keepOpen));
+                server.requestCompleted();
+                connection.requestStart = parser.requestEnd();
+                parser.reset();
+            } else {
+                // Answer the bad request, then close - the rest of the stream cannot be trusted
+                connection.keepOpen = false;
+                CachedResponse error = result == HttpRequestParser.Result.TOO_LARGE
+                        ? CachedResponse.HEADERS_TOO_LARGE : CachedResponse.BAD_REQUEST;
+                Collections.addAll(connection.batch, error.full(false));
+            }
+        }
+
+        // Drop answered requests; what remains is the start of the next one
+        if (connection.requestStart > 0) {
+            readBuffer.flip().position(connection.requestStart);
+            readBuffer.compact();
+            connection.requestStart = 0;
+            parser.reset(); // Offsets moved - rescan the partial request
+        }
+
+        if (connection.batch.isEmpty()) {
+            recv(connection);
+            return;
+        }
+
+        // 2. Send HTTP Responses (pre-encoded bytes, one writev for the whole batch)
+        connection.pendingWrite = connection.batch.toArray(new ByteBuffer[0]);
+        connection.writeIndex = 0;
+        connection.batch.clear();
+        server.writeIssued();
+        writePending(connection);
+    }
+
+    private void writePending(Connection connection) {
+        ByteBuffer[] buffers = connection.pendingWrite;
+        int count = Math.min(buffers.length - connection.writeIndex, MAX_IOVECS);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = buffers[connection.writeIndex + i];
+            if (!buffer.isDirect()) {
+                // Per-request heads (206/416) are heap buffers; iovecs need native memory
+                buffer = ByteBuffer.allocateDirect(buffer.remaining()).put(buffer).flip();
+                buffers[connection.writeIndex + i] = buffer;
+            }
+            long iovec = (long) i * IoUring.IOVEC_SIZE;
+            connection.iovecs.set(ValueLayout.JAVA_LONG, iovec, MemorySegment.ofBuffer(buffer).address());
+            connection.iovecs.set(ValueLayout.JAVA_LONG, iovec + 8, buffer.remaining());
+        }
+        ring.prepWritev(connection.fd, connection.iovecs, count, (long) connection.slot << 8 | OP_WRITE);
+    }
+
+    private void onWrite(Connection connection, int written) {
+        if (written < 0) {
+            close(connection); // Peer went away mid-response
+            return;
+        }
+        // Advance past what the kernel took; a short write resumes where it stopped
+        ByteBuffer[] buffers = connection.pendingWrite;
+        while (connection.writeIndex < buffers.length) {
+            ByteBuffer buffer = buffers[connection.writeIndex];
+            int step = Math.min(written, buffer.remaining());
+            buffer.position(buffer.position() + step);
+            written -= step;
+            if (buffer.hasRemaining()) {
+                break;
+            }
+            connection.writeIndex++;
+        }
+        if (connection.writeIndex < buffers.length) {
+            writePending(connection);
+        } else if (connection.keepOpen) {
+            connection.pendingWrite = null;
+            serveRequests(connection); // Pipelined requests may already be buffered
+        } else {
+            close(connection);
+        }
+    }
+
+    private void recv(Connection connection) {
+        ByteBuffer readBuffer = connection.readBuffer;
+        connection.reading = true;
+        connection.lastActive = System.currentTimeMillis();
+        ring.prepRecv(connection.fd, connection.readSegment.asSlice(readBuffer.position(), readBuffer.remaining()),
+                (long) connection.slot << 8 | OP_RECV);
+    }
+
+    private void close(Connection connection) {
+        ring.prepClose(connection.fd, (long) connection.slot << 8 | OP_CLOSE);
+        connection.fd = -1;
+        connection.pendingWrite = null;
+        connection.batch.clear();
+        connections--;
+        freeSlots.push(connection);
+    }
+
+    /**
+     * Once per tick: shut down connections idle past the keep-alive timeout.
+     * Their pending recv then completes with 0 and closes them normally.
+     */
+    private void onTick() {
+        if (!running) {
+            return;
+        }
+        long idleBefore = System.currentTimeMillis() - keepAlive.idleTimeoutMillis();
+        for (Connection connection : slots) {
+            if (connection.fd >= 0 && connection.reading && connection.lastActive < idleBefore) {
+                ring.shutdownSocket(connection.fd);
+            }
+        }
+        ring.prepTimeout(tick, OP_TICK);
+    }
+}
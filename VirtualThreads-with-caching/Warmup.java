@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Startup warmup: everything the server caches is built before the listen
+ * port is bound, on a fork-join pool, and every phase is timed.
+ *
+ * Key Points:
+ * 1. Independent work runs in parallel - each file of a document root is one
+ *    task, and within a file its hash and each compressed variant are
+ *    forked next to the identity encoding (CachedResponse.load)
+ * 2. The caller joins everything before it binds: a port that accepts
+ *    connections (a TCP readiness probe) means a warm cache, so rolling
+ *    deploys never route traffic to a cold instance
+ * 3. Phases (wall time, in order) and steps (time summed over all tasks:
+ *    read, hash, encode, gzip, deflate) are reported separately - a phase
+ *    much shorter than its steps is the parallelism paying off
+ *
+ * INLINE runs every step on the calling thread without timing it; loads on
+ * the request path (hot reload, cache misses) use it.
+ *
+ * Configuration:
+ * -Dwarmup.parallelism=N       fork-join workers (default: available processors)
+ */
+final class Warmup {
+    static final Warmup INLINE = new Warmup(null);
+
+    /**
+     * One unit of warmup work. May throw IOException, unlike Runnable.
+     */
+    interface Work<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * A forked step; join() rethrows what the work threw.
+     */
+    static final class Step<T> {
+        private final ForkJoinTask<T> task;
+
+        private Step(ForkJoinTask<T> task) {
+            this.task = task;
+        }
+
+        T join() throws IOException {
+            try {
+                return task.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+                if (cause instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw new IOException("Warmup step failed", cause);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during warmup");
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final long startNanos = System.nanoTime();
+    private final List<String> phases = new ArrayList<>();        // Main thread only
+    private final List<Long> phaseNanos = new ArrayList<>();
+    private final Map<String, LongAdder> stepNanos = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> stepCounts = new ConcurrentHashMap<>();
+
+    private Warmup(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    static Warmup fromSystemProperties() {
+        int parallelism = Integer.getInteger("warmup.parallelism", Runtime.getRuntime().availableProcessors());
+        return new Warmup(new ForkJoinPool(Math.max(1, parallelism)));
+    }
+
+    /**
+     * Starts work as the named step: on the pool, or right here for INLINE.
+     */
+    <T> Step<T> fork(String step, Work<T> work) {
+        ForkJoinTask<T> task = ForkJoinTask.adapt(() -> timed(step, work));
+        if (pool == null) {
+            task.quietlyInvoke(); // Failures surface in join(), as they do for forked steps
+        } else {
+            pool.execute(task);
+        }
+        return new Step<>(task);
+    }
+
+    /**
+     * Runs work as the named step on the calling thread.
+     */
+    <T> T run(String step, Work<T> work) throws IOException {
+        return timed(step, work);
+    }
+
+    private <T> T timed(String step, Work<T> work) throws IOException {
+        if (pool == null) {
+            return work.call();
+        }
+        long start = System.nanoTime();
+        try {
+            return work.call();
+        } finally {
+            stepNanos.computeIfAbsent(step, name -> new LongAdder()).add(System.nanoTime() - start);
+            stepCounts.computeIfAbsent(step, name -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Runs one startup phase on the calling thread (which may fork steps and
+     * must join them) and records its wall time.
+     */
+    <T> T phase(String name, Work<T> work) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return work.call();
+        } finally {
+            phases.add(name);
+            phaseNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stops the workers once the last phase is done; loads after startup
+     * use INLINE.
+     */
+    void finish() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    void printReport() {
+        long jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime()
+                - (System.nanoTime() - startNanos) / 1_000_000;
+        System.out.printf("Startup: %.1f ms to ready (JVM start to warmup %d ms, %d warmup workers)%n",
+                (System.nanoTime() - startNanos) / 1e6 + jvmMillis, jvmMillis, pool.getParallelism());
+        for (int i = 0; i < phases.size(); i++) {
+            System.out.printf("  %-22s %8.1f ms%n", phases.get(i), phaseNanos.get(i) / 1e6);
+        }
+        for (String step : List.of("read", "hash", "encode", "gzip", "deflate")) {
+            LongAdder nanos = stepNanos.get(step);
+            if (nanos != null) {
+                System.out.printf("    %-20s %8.1f ms over %d task(s)%n",
+                        step, nanos.sum() / 1e6, stepCounts.get(step).sum());
+            }
+        }
+    }
+}
@@ -1,14 +1,31 @@
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Virtual Threads Web Server WITHOUT Caching (JDK 21+)
@@ -16,10 +33,66 @@ import java.util.concurrent.TimeUnit;
  * 
  * Key Difference: Reads data.json from disk on EVERY request
  * This creates a performance bottleneck for comparison purposes
+ *
+ * Zero-copy mode (-Dserver.sendfile=true): still goes to the file on every
+ * request, but FileChannel.transferTo hands it to the socket in the kernel
+ * (sendfile) - no heap byte[], no String, no charset encoding.
+ * It also honors "Range: bytes=..." (206, multipart/byteranges for several
+ * ranges, 416) with transferTo(position, count) - only the window is read.
+ *
+ * Chunked mode (-Dserver.chunked=true): the body is streamed with
+ * "Transfer-Encoding: chunked" through one bounded buffer
+ * (-Dserver.chunkSize, default 8192), so the size never has to be known up
+ * front and memory per response stays constant - for multi-GB files or for
+ * JSON generated on the fly (GET /generate?entries=N). Time-to-first-byte and
+ * total response time are recorded separately.
+ *
+ * Coalescing mode (-Dserver.coalesce=true): still no cache, but concurrent
+ * requests for the same file share one in-flight Files.readAllBytes. The
+ * first request to miss starts the read; everyone arriving before it finishes
+ * waits on its future instead of going to the disk. The flight is removed
+ * before it completes, so the next request after that reads the file again.
  */
 public class Server {
+    // Status line and fixed headers, encoded once; only Content-Length varies
+    private static final ByteBuffer STATIC_HEADERS = ByteBuffer.wrap(("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Accept-Ranges: bytes\r\n").getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    private static final int MAX_RANGES = 16; // More ranges than this and the Range header is ignored
+    private static final String BOUNDARY = "7d3f1c9a5e2b8046";
+
+    private static final byte[] CHUNKED_HEADERS = ("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Transfer-Encoding: chunked\r\n"
+            + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
     private final ExecutorService virtualThreadExecutor;
     private final String jsonFilePath;
+    // At least 1 byte (0 never fills a frame), at most 1 GB (the frame is one array)
+    private final int chunkSize = Math.min(Math.max(1, Integer.getInteger("server.chunkSize", 8192)), 1 << 30);
+
+    // Streaming metrics (chunked mode)
+    private final AtomicLong streamedResponses = new AtomicLong(0);
+    private final AtomicLong streamedBytes = new AtomicLong(0);
+    private final AtomicLong chunksWritten = new AtomicLong(0);
+    private final AtomicLong firstByteNanos = new AtomicLong(0);
+    private final AtomicLong maxFirstByteNanos = new AtomicLong(0);
+    private final AtomicLong totalNanos = new AtomicLong(0);
+
+    // Single-flight reads (coalescing mode): path -> the read in progress, never a finished one
+    private final boolean coalesce = Boolean.getBoolean("server.coalesce");
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong diskReads = new AtomicLong(0);
+    private final AtomicLong coalescedWaiters = new AtomicLong(0);
+    private final AtomicLong maxWaitersPerRead = new AtomicLong(0);
+
+    /**
+     * One read in progress and how many requests joined it.
+     */
+    private static final class Flight {
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger(0);
+    }
 
     public Server() {
         this.virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor();
@@ -41,7 +114,7 @@ public class Server {
             }
 
             // 2. Read JSON from disk (NO CACHING - performance bottleneck!)
-            String jsonResponse = new String(Files.readAllBytes(Paths.get(jsonFilePath)));
+            String jsonResponse = new String(readFile(jsonFilePath));
 
             // 3. Send HTTP Response
             toSocket.println("HTTP/1.1 200 OK");
@@ -55,16 +128,449 @@ public class Server {
         }
     }
 
+    /**
+     * The file's bytes, read from disk for this request - or, in coalescing
+     * mode, by whichever request is already reading it. Callers must not
+     * modify the array; waiters share it.
+     */
+    private byte[] readFile(String path) throws IOException {
+        if (!coalesce) {
+            return Files.readAllBytes(Paths.get(path));
+        }
+        Flight flight = new Flight();
+        Flight inFlight = flights.putIfAbsent(path, flight);
+        if (inFlight != null) {
+            // Someone is reading it right now - wait for those bytes (parks this virtual thread only)
+            coalescedWaiters.incrementAndGet();
+            maxWaitersPerRead.accumulateAndGet(inFlight.waiters.incrementAndGet(), Math::max);
+            try {
+                return inFlight.result.join();
+            } catch (CompletionException ex) {
+                throw new IOException("Coalesced read of " + path + " failed", ex.getCause());
+            }
+        }
+
+        // Leader: read once, then unpublish before completing so nothing outlives the read
+        diskReads.incrementAndGet();
+        try {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            flights.remove(path, flight);
+            flight.result.complete(bytes);
+            return bytes;
+        } catch (Throwable ex) {
+            // Errors too (OutOfMemoryError on a huge file): waiters must never park forever
+            flights.remove(path, flight);
+            flight.result.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Zero-copy variant of handleClient. Headers go out in one gathering
+     * write, then the file is streamed with transferTo straight from the
+     * page cache into the socket.
+     */
+    public void handleClientZeroCopy(SocketChannel client) {
+        try (
+                client;
+                BufferedReader fromSocket = new BufferedReader(
+                        new InputStreamReader(client.socket().getInputStream()));
+                FileChannel file = FileChannel.open(Paths.get(jsonFilePath), StandardOpenOption.READ)) {
+            // 1. Consume Request Headers (HTTP Compliance), remembering Range
+            String range = null;
+            String line = fromSocket.readLine();
+            while (line != null && !line.isEmpty()) {
+                if (line.regionMatches(true, 0, "Range:", 0, 6)) {
+                    range = line.substring(6).trim();
+                }
+                line = fromSocket.readLine();
+            }
+
+            long size = file.size();
+            List<long[]> ranges = range == null ? null : parseRanges(range, size);
+            if (ranges != null) {
+                sendRanges(client, file, ranges, size);
+                return;
+            }
+
+            // 2. Send headers: fixed part + Content-Length in a single writev
+            ByteBuffer[] headers = {
+                    STATIC_HEADERS.duplicate(),
+                    ByteBuffer.wrap(("Content-Length: " + size + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII))
+            };
+            while (headers[1].hasRemaining()) {
+                client.write(headers);
+            }
+
+            // 3. Send body from disk without copying it through the heap
+            transferFully(file, 0, size, client);
+
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Streaming variant of handleClient: nothing is sized in advance. The
+     * file (or generated JSON) passes through one chunkSize frame, and each
+     * full frame goes out as one chunk.
+     */
+    public void handleClientChunked(Socket clientSocket) {
+        try (
+                clientSocket;
+                BufferedReader fromSocket = new BufferedReader(
+                        new InputStreamReader(clientSocket.getInputStream()))) {
+            // 1. Read the request line, consume the remaining headers (HTTP Compliance)
+            String requestLine = fromSocket.readLine();
+            long start = System.nanoTime();
+            String line = requestLine;
+            while (line != null && !line.isEmpty()) {
+                line = fromSocket.readLine();
+            }
+            if (requestLine == null) {
+                return;
+            }
+
+            // 2. Stream the body; the status line goes out in the same write as the first chunk
+            ChunkedOutputStream body = new ChunkedOutputStream(clientSocket.getOutputStream(), chunkSize, start);
+            long entries = generatedEntries(requestLine);
+            if (entries >= 0) {
+                writeGeneratedJson(body, entries);
+            } else {
+                try (InputStream file = Files.newInputStream(Paths.get(jsonFilePath))) {
+                    body.readFrom(file);
+                }
+            }
+            body.finish();
+
+            // 3. Record time-to-first-byte apart from total time
+            long firstByte = body.firstByteAt - start;
+            streamedResponses.incrementAndGet();
+            streamedBytes.addAndGet(body.bodyBytes);
+            chunksWritten.addAndGet(body.chunks);
+            firstByteNanos.addAndGet(firstByte);
+            maxFirstByteNanos.accumulateAndGet(firstByte, Math::max);
+            totalNanos.addAndGet(System.nanoTime() - start);
+
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns N for "GET /generate?entries=N ...", or -1 to serve the file.
+     */
+    static long generatedEntries(String requestLine) {
+        String prefix = "GET /generate?entries=";
+        if (!requestLine.startsWith(prefix)) {
+            return -1;
+        }
+        int end = requestLine.indexOf(' ', prefix.length());
+        try {
+            return Math.max(0, Long.parseLong(requestLine.substring(prefix.length(), end < 0 ? requestLine.length() : end)));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes entries in the same layout as data.json, one entry at a time;
+     * "/generate?entries=1000" reproduces the file byte for byte.
+     */
+    private static void writeGeneratedJson(OutputStream out, long entries) throws IOException {
+        out.write('[');
+        for (long id = 1; id <= entries; id++) {
+            String entry = (id == 1 ? "\n" : ",\n") + "  {\n"
+                    + "    \"id\": " + id + ",\n"
+                    + "    \"name\": \"Entry " + id + "\",\n"
+                    + "    \"status\": \"Active\"\n"
+                    + "  }";
+            out.write(entry.getBytes(StandardCharsets.US_ASCII));
+        }
+        out.write("\n]\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Chunked transfer coding over a single reusable frame:
+     * [hex size + CRLF][data][CRLF]. The data is written (or read) straight
+     * into the frame, the size prefix is filled in right before the data, and
+     * the whole chunk leaves in one write - no per-chunk allocation. The
+     * status line and headers are copied in front of the first chunk, so
+     * they share its write; time to first byte is stamped just before it.
+     */
+    private static final class ChunkedOutputStream extends OutputStream {
+        private static final int PREFIX = 10; // Up to 8 hex digits + CRLF
+        // Data offset in the frame: room for the headers ahead of the first chunk's size line
+        private static final int DATA = CHUNKED_HEADERS.length + PREFIX;
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        private final OutputStream socket;
+        private final byte[] frame;
+        private final int capacity;
+        private final long start;
+        private int count;       // Data bytes in the frame
+        private boolean headersSent;
+        long firstByteAt;
+        long bodyBytes;
+        long chunks;
+
+        ChunkedOutputStream(OutputStream socket, int chunkSize, long start) {
+            this.socket = socket;
+            this.capacity = chunkSize;
+            this.frame = new byte[DATA + chunkSize + 2];
+            this.start = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == capacity) {
+                flush();
+            }
+            frame[DATA + count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == capacity) {
+                    flush();
+                }
+                int n = Math.min(len, capacity - count);
+                System.arraycopy(b, off, frame, DATA + count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Reads in straight into the frame - one copy from the file to the socket buffer.
+         */
+        void readFrom(InputStream in) throws IOException {
+            int n;
+            while ((n = in.read(frame, DATA + count, capacity - count)) >= 0) {
+                count += n;
+                if (count == capacity) {
+                    flush();
+                }
+            }
+        }
+
+        /**
+         * Sends the buffered data as one chunk (no-op when empty).
+         */
+        @Override
+        public void flush() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int begin = DATA - 2;
+            frame[begin] = '\r';
+            frame[begin + 1] = '\n';
+            for (int size = count; size != 0; size >>>= 4) {
+                frame[--begin] = HEX[size & 0xF]; // count > 0, so at least one digit
+            }
+            frame[DATA + count] = '\r';
+            frame[DATA + count + 1] = '\n';
+            if (!headersSent) {
+                // Status line and headers share the first chunk's write
+                headersSent = true;
+                begin -= CHUNKED_HEADERS.length;
+                System.arraycopy(CHUNKED_HEADERS, 0, frame, begin, CHUNKED_HEADERS.length);
+                firstByteAt = System.nanoTime();
+            }
+            socket.write(frame, begin, DATA + count + 2 - begin);
+            chunks++;
+            bodyBytes += count;
+            count = 0;
+        }
+
+        /**
+         * Flushes the last partial chunk and writes the zero-length terminator.
+         */
+        void finish() throws IOException {
+            flush();
+            if (headersSent) {
+                socket.write(LAST_CHUNK);
+            } else {
+                // Empty body: headers and terminator in one write
+                headersSent = true;
+                System.arraycopy(CHUNKED_HEADERS, 0, frame, 0, CHUNKED_HEADERS.length);
+                System.arraycopy(LAST_CHUNK, 0, frame, CHUNKED_HEADERS.length, LAST_CHUNK.length);
+                firstByteAt = System.nanoTime();
+                socket.write(frame, 0, CHUNKED_HEADERS.length + LAST_CHUNK.length);
+            }
+            socket.flush();
+        }
+    }
+
+    /**
+     * 206 for one range, multipart/byteranges for several, 416 for none.
+     * Every part is sent straight from the file with transferTo.
+     */
+    private void sendRanges(SocketChannel client, FileChannel file, List<long[]> ranges, long size) throws IOException {
+        if (ranges.isEmpty()) {
+            writeAscii(client, "HTTP/1.1 416 Range Not Satisfiable\r\n"
+                    + "Content-Range: bytes */" + size + "\r\n"
+                    + "Content-Length: 0\r\n\r\n");
+            return;
+        }
+        if (ranges.size() == 1) {
+            long[] r = ranges.get(0);
+            writeAscii(client, "HTTP/1.1 206 Partial Content\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Range: bytes " + r[0] + "-" + r[1] + "/" + size + "\r\n"
+                    + "Content-Length: " + (r[1] - r[0] + 1) + "\r\n\r\n");
+            transferFully(file, r[0], r[1] - r[0] + 1, client);
+            return;
+        }
+
+        // Part headers are small Strings; the parts themselves never enter the heap
+        List<String> partHeads = new ArrayList<>();
+        long length = 0;
+        for (long[] r : ranges) {
+            String partHead = "\r\n--" + BOUNDARY + "\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Range: bytes " + r[0] + "-" + r[1] + "/" + size + "\r\n\r\n";
+            partHeads.add(partHead);
+            length += partHead.length() + r[1] - r[0] + 1;
+        }
+        String closing = "\r\n--" + BOUNDARY + "--\r\n";
+        length += closing.length();
+        writeAscii(client, "HTTP/1.1 206 Partial Content\r\n"
+                + "Content-Type: multipart/byteranges; boundary=" + BOUNDARY + "\r\n"
+                + "Content-Length: " + length + "\r\n\r\n");
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] r = ranges.get(i);
+            writeAscii(client, partHeads.get(i));
+            transferFully(file, r[0], r[1] - r[0] + 1, client);
+        }
+        writeAscii(client, closing);
+    }
+
+    /**
+     * Parses "bytes=first-last, first-, -suffix" against size into inclusive
+     * {start, end} pairs. Returns null if the header must be ignored (other
+     * unit, bad syntax, too many ranges), or an empty list if no range is
+     * satisfiable.
+     */
+    static List<long[]> parseRanges(String header, long size) {
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        boolean any = false;
+        try {
+            for (String spec : header.substring(6).split(",")) {
+                spec = spec.trim();
+                if (spec.isEmpty()) {
+                    continue; // Empty list elements are allowed
+                }
+                any = true;
+                int dash = spec.indexOf('-');
+                if (dash < 0) {
+                    return null;
+                }
+                String first = spec.substring(0, dash);
+                String last = spec.substring(dash + 1);
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    long suffix = Long.parseLong(last); // "-n": the last n bytes
+                    start = Math.max(0, size - suffix);
+                    end = suffix == 0 ? -1 : size - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (end < start) {
+                        return null; // "5-2" is invalid syntax, not an unsatisfiable range
+                    }
+                    end = Math.min(end, size - 1);
+                }
+                if (start < 0) {
+                    return null;
+                }
+                if (start < size && start <= end) {
+                    if (ranges.size() == MAX_RANGES) {
+                        return null;
+                    }
+                    ranges.add(new long[] { start, end });
+                }
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return any ? ranges : null;
+    }
+
+    /**
+     * Sends count bytes of file from position. transferTo() returns 0 at or
+     * past end of file, so a file truncated since its size was taken fails
+     * the response instead of spinning; the client sees a short body.
+     */
+    private static void transferFully(FileChannel file, long position, long count, SocketChannel client)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, client);
+            if (sent == 0 && position >= file.size()) {
+                throw new EOFException("File truncated to " + file.size() + " bytes while sending up to " + end);
+            }
+            position += sent;
+        }
+    }
+
+    private static void writeAscii(SocketChannel client, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+
     public static void main(String[] args) {
         int port = 8020; // Different port from cached version (8010)
         int backlog = 10000; // Same backlog as cached version for fair comparison
+        boolean sendfile = Boolean.getBoolean("server.sendfile");
+        boolean chunked = Boolean.getBoolean("server.chunked");
 
         try {
             Server server = new Server();
 
+            if (sendfile) {
+                // Channels are needed for transferTo; accept() still blocks a virtual thread only
+                try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+                    serverChannel.bind(new InetSocketAddress(port), backlog);
+                    System.out.println("Server listening on port " + port + " with Virtual Threads (zero-copy sendfile)");
+
+                    while (true) {
+                        SocketChannel client = serverChannel.accept();
+                        server.virtualThreadExecutor.execute(() -> server.handleClientZeroCopy(client));
+                    }
+                }
+            }
+
+            if (chunked) {
+                Runtime.getRuntime().addShutdownHook(new Thread(server::printStreamingStats));
+                try (ServerSocket serverSocket = new ServerSocket(port, backlog)) {
+                    System.out.println("Server listening on port " + port
+                            + " with Virtual Threads (chunked streaming, " + server.chunkSize + " byte chunks)");
+
+                    while (true) {
+                        Socket clientSocket = serverSocket.accept();
+                        server.virtualThreadExecutor.execute(() -> server.handleClientChunked(clientSocket));
+                    }
+                }
+            }
+
+            if (server.coalesce) {
+                Runtime.getRuntime().addShutdownHook(new Thread(server::printCoalescingStats));
+            }
+
             // Use larger backlog for high concurrency testing
             try (ServerSocket serverSocket = new ServerSocket(port, backlog)) {
-                System.out.println("Server listening on port " + port + " with Virtual Threads");
+                System.out.println("Server listening on port " + port + " with Virtual Threads"
+                        + (server.coalesce ? " (single-flight disk reads)" : ""));
                 // System.out.println("Connection backlog: " + backlog);
 
                 while (true) {
@@ -77,6 +583,28 @@ public class Server {
         }
     }
 
+    private void printStreamingStats() {
+        long responses = Math.max(1, streamedResponses.get());
+        System.out.println("\n\nFinal stats:");
+        System.out.println("  Streamed responses: " + streamedResponses.get());
+        System.out.println("  Body bytes streamed: " + streamedBytes.get());
+        System.out.printf("  Chunks per response: %.2f%n", chunksWritten.get() / (double) responses);
+        System.out.printf("  Time to first byte: %.3f ms average, %.3f ms max%n",
+                firstByteNanos.get() / 1e6 / responses, maxFirstByteNanos.get() / 1e6);
+        System.out.printf("  Total response time: %.3f ms average%n", totalNanos.get() / 1e6 / responses);
+    }
+
+    private void printCoalescingStats() {
+        long reads = diskReads.get();
+        long waiters = coalescedWaiters.get();
+        System.out.println("\n\nFinal stats:");
+        System.out.println("  Requests served from a read: " + (reads + waiters));
+        System.out.println("  Disk reads: " + reads);
+        System.out.println("  Coalesced waiters: " + waiters);
+        System.out.printf("  Waiters per read: %.2f average, %d max%n",
+                waiters / (double) Math.max(1, reads), maxWaitersPerRead.get());
+    }
+
     private void shutdownExecutor() {
         System.out.println("Initiating graceful shutdown of virtual thread executor...");
         virtualThreadExecutor.shutdown(); // Disable new tasks from being submitted